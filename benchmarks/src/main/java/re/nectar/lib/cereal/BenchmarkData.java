@@ -0,0 +1,30 @@
+package re.nectar.lib.cereal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds benchmark inputs out of the test fixtures.
+ */
+final class BenchmarkData {
+    private static final ConverterTest CONVERTER_TEST = new ConverterTest();
+
+    private BenchmarkData() {
+    }
+
+    static Forecast forecast() {
+        return CONVERTER_TEST.getRandomForecast(true);
+    }
+
+    static List<Forecast> forecasts(final int count) {
+        final List<Forecast> forecasts = new ArrayList<>(count);
+        for (int t = 0; t < count; t++) {
+            forecasts.add(forecast());
+        }
+        return forecasts;
+    }
+
+    static String string(final boolean ascii, final int minLength, final int maxLength) {
+        return ascii ? RandUtils.nextPlainStringLowerCase(minLength, maxLength) : RandUtils.nextUTF8String(minLength, maxLength);
+    }
+}
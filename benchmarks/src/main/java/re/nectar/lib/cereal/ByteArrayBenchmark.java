@@ -0,0 +1,128 @@
+package re.nectar.lib.cereal;
+
+import re.nectar.lib.cereal.cerealizer.FloatCerealizer;
+import re.nectar.lib.cereal.cerealizer.ListCerealizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding and getting primitive values to and from a ByteArray.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ByteArrayBenchmark {
+
+    private static final int VALUES = 1024;
+
+    private final int[] ints = new int[VALUES];
+    private final long[] longs = new long[VALUES];
+    private final float[] floats = new float[VALUES];
+    private final double[] doubles = new double[VALUES];
+    private final ByteArray writeBuffer = new ByteArray();
+    private final List<Float> floatList = new ArrayList<>(VALUES);
+    private final ListCerealizer<Float> floatListCerealizer = new ListCerealizer<>(new FloatCerealizer());
+    private byte[] encoded;
+    private byte[] encodedFloats;
+
+    @Setup
+    public void setup() {
+        final ByteArray ba = new ByteArray();
+        for (int t = 0; t < VALUES; t++) {
+            ints[t] = RandUtils.nextInt();
+            longs[t] = RandUtils.nextLong();
+            floats[t] = RandUtils.nextFloat();
+            doubles[t] = RandUtils.nextDouble();
+            ba.add(ints[t]);
+            ba.add(longs[t]);
+            ba.add(floats[t]);
+            ba.add(doubles[t]);
+            floatList.add(floats[t]);
+        }
+        encoded = ba.getAllBytes();
+        ba.add(floats);
+        encodedFloats = ba.getAllBytes();
+    }
+
+    @Benchmark
+    public ByteArray addPrimitives(final BytesCounter counter) {
+        writeBuffer.reset();
+        for (int t = 0; t < VALUES; t++) {
+            writeBuffer.add(ints[t]);
+            writeBuffer.add(longs[t]);
+            writeBuffer.add(floats[t]);
+            writeBuffer.add(doubles[t]);
+        }
+        counter.bytes += writeBuffer.length();
+        return writeBuffer;
+    }
+
+    @Benchmark
+    public ByteArray addPrimitivesToNewByteArray(final BytesCounter counter) {
+        final ByteArray ba = new ByteArray();
+        for (int t = 0; t < VALUES; t++) {
+            ba.add(ints[t]);
+            ba.add(longs[t]);
+            ba.add(floats[t]);
+            ba.add(doubles[t]);
+        }
+        counter.bytes += ba.length();
+        return ba;
+    }
+
+    @Benchmark
+    public void getPrimitives(final BytesCounter counter, final Blackhole blackhole) {
+        final ByteArray ba = ByteArray.wrap(encoded);
+        for (int t = 0; t < VALUES; t++) {
+            blackhole.consume(ba.getInt());
+            blackhole.consume(ba.getLong());
+            blackhole.consume(ba.getFloat());
+            blackhole.consume(ba.getDouble());
+        }
+        counter.bytes += encoded.length;
+    }
+
+    @Benchmark
+    public ByteArray addFloatList(final BytesCounter counter) {
+        writeBuffer.reset();
+        floatListCerealizer.cerealizeTo(writeBuffer, floatList);
+        counter.bytes += writeBuffer.length();
+        return writeBuffer;
+    }
+
+    @Benchmark
+    public ByteArray addFloatArray(final BytesCounter counter) {
+        writeBuffer.reset();
+        writeBuffer.add(floats);
+        counter.bytes += writeBuffer.length();
+        return writeBuffer;
+    }
+
+    @Benchmark
+    public List<Float> getFloatList(final BytesCounter counter) {
+        counter.bytes += encodedFloats.length;
+        return floatListCerealizer.uncerealizeFrom(ByteArray.wrap(encodedFloats));
+    }
+
+    @Benchmark
+    public float[] getFloatArray(final BytesCounter counter) {
+        counter.bytes += encodedFloats.length;
+        return ByteArray.wrap(encodedFloats).getFloatArray();
+    }
+}
@@ -0,0 +1,21 @@
+package re.nectar.lib.cereal;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the cerealized bytes a benchmark went through, which JMH reports as a "bytes" throughput next to ops/s.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class BytesCounter {
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void clean() {
+        bytes = 0;
+    }
+}
@@ -0,0 +1,166 @@
+package re.nectar.lib.cereal;
+
+import re.nectar.lib.cereal.cerealizer.CerealizableCerealizer;
+import re.nectar.lib.cereal.cerealizer.Cerealizer;
+import re.nectar.lib.cereal.cerealizer.IntegerCerealizer;
+import re.nectar.lib.cereal.cerealizer.ListCerealizer;
+import re.nectar.lib.cereal.cerealizer.MapCerealizer;
+import re.nectar.lib.cereal.cerealizer.RecordCerealizer;
+import re.nectar.lib.cereal.cerealizer.StringCerealizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips (cerealize, then uncerealize) of collections through ListCerealizer and MapCerealizer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CerealizerBenchmark {
+
+    private static final int ELEMENTS = 1000;
+
+    private final ListCerealizer<Integer> integerListCerealizer = new ListCerealizer<>(new IntegerCerealizer());
+    private final ListCerealizer<Forecast> forecastListCerealizer =
+            new ListCerealizer<>(new CerealizableCerealizer<>(Forecast.class));
+    private final ListCerealizer<Forecast> generatedForecastListCerealizer = new ListCerealizer<>(new ForecastCerealizer());
+    private final MapCerealizer<String, Forecast> forecastMapCerealizer =
+            new MapCerealizer<>(new StringCerealizer(), new CerealizableCerealizer<>(Forecast.class));
+    private final ListCerealizer<Observation> observationListCerealizer = new ListCerealizer<>(new ObservationCerealizer());
+    private final ListCerealizer<Observation> recordObservationListCerealizer =
+            new ListCerealizer<>(RecordCerealizer.of(Observation.class));
+    private final ByteArray buffer = new ByteArray();
+
+    private List<Integer> integers;
+    private List<Forecast> forecasts;
+    private Map<String, Forecast> forecastsByName;
+    private List<Observation> observations;
+
+    @Setup
+    public void setup() {
+        integers = new ArrayList<>(ELEMENTS);
+        for (int t = 0; t < ELEMENTS; t++) {
+            integers.add(RandUtils.nextInt());
+        }
+        forecasts = BenchmarkData.forecasts(ELEMENTS);
+        forecastsByName = new HashMap<>();
+        for (final Forecast forecast : forecasts) {
+            forecastsByName.put(BenchmarkData.string(true, 8, 32), forecast);
+        }
+        observations = new ArrayList<>(ELEMENTS);
+        for (final Forecast forecast : forecasts) {
+            observations.add(new Observation(forecast.getTimestamp(), forecast.getLat(), forecast.getLng(),
+                    forecast.getDataSource(), forecast.getTemperature(), forecast.getWindSpeed(), BenchmarkData.string(true, 8, 32)));
+        }
+    }
+
+    @Benchmark
+    public List<Integer> integerListRoundTrip(final BytesCounter counter) {
+        buffer.reset();
+        integerListCerealizer.cerealizeTo(buffer, integers);
+        counter.bytes += buffer.length();
+        return integerListCerealizer.uncerealizeFrom(buffer);
+    }
+
+    @Benchmark
+    public List<Forecast> forecastListRoundTrip(final BytesCounter counter) {
+        buffer.reset();
+        forecastListCerealizer.cerealizeTo(buffer, forecasts);
+        counter.bytes += buffer.length();
+        return forecastListCerealizer.uncerealizeFrom(buffer);
+    }
+
+    /**
+     * Same as forecastListRoundTrip, with the cerealizer generated by @Cereal instead of the hand written methods.
+     */
+    @Benchmark
+    public List<Forecast> generatedForecastListRoundTrip(final BytesCounter counter) {
+        buffer.reset();
+        generatedForecastListCerealizer.cerealizeTo(buffer, forecasts);
+        counter.bytes += buffer.length();
+        return generatedForecastListCerealizer.uncerealizeFrom(buffer);
+    }
+
+    @Benchmark
+    public Map<String, Forecast> forecastMapRoundTrip(final BytesCounter counter) {
+        buffer.reset();
+        forecastMapCerealizer.cerealizeTo(buffer, forecastsByName);
+        counter.bytes += buffer.length();
+        return forecastMapCerealizer.uncerealizeFrom(buffer);
+    }
+
+    @Benchmark
+    public List<Observation> observationListRoundTrip(final BytesCounter counter) {
+        buffer.reset();
+        observationListCerealizer.cerealizeTo(buffer, observations);
+        counter.bytes += buffer.length();
+        return observationListCerealizer.uncerealizeFrom(buffer);
+    }
+
+    /**
+     * Same as observationListRoundTrip, with a RecordCerealizer instead of the hand written cerealizer.
+     */
+    @Benchmark
+    public List<Observation> recordObservationListRoundTrip(final BytesCounter counter) {
+        buffer.reset();
+        recordObservationListCerealizer.cerealizeTo(buffer, observations);
+        counter.bytes += buffer.length();
+        return recordObservationListCerealizer.uncerealizeFrom(buffer);
+    }
+
+    public record Observation(long timestamp, float lat, float lng, int dataSource, Float temperature, Float windSpeed,
+                              String station) {
+    }
+
+    /**
+     * Writes the same bytes as the RecordCerealizer of Observation.
+     */
+    private static final class ObservationCerealizer implements Cerealizer<Observation> {
+        @Override
+        public void cerealizeTo(final ByteArray ba, final Observation obj) {
+            final BitMap nulls = new BitMap(3);
+            nulls.set(0, obj.temperature() == null);
+            nulls.set(1, obj.windSpeed() == null);
+            nulls.set(2, obj.station() == null);
+            nulls.cerealizeTo(ba);
+            ba.add(obj.timestamp());
+            ba.add(obj.lat());
+            ba.add(obj.lng());
+            ba.add(obj.dataSource());
+            ba.addIfNotNull(obj.temperature());
+            ba.addIfNotNull(obj.windSpeed());
+            ba.addIfNotNull(obj.station());
+        }
+
+        @Override
+        public Observation uncerealizeFrom(final ByteArray ba) {
+            final BitMap nulls = new BitMap();
+            nulls.uncerealizeFrom(ba);
+            final long timestamp = ba.getLong();
+            final float lat = ba.getFloat();
+            final float lng = ba.getFloat();
+            final int dataSource = ba.getInt();
+            final Float temperature = nulls.is(0) ? null : ba.getFloat();
+            final Float windSpeed = nulls.is(1) ? null : ba.getFloat();
+            final String station = nulls.is(2) ? null : ba.getString();
+            return new Observation(timestamp, lat, lng, dataSource, temperature, windSpeed, station);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package re.nectar.lib.cereal;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting a file of random Forecasts by timestamp with CerealFileSorter.
+ * <p>
+ * Each measurement is a single full sort, so JMH reports it in ms/op: the throughput in bytes/s is inputMegabytes
+ * divided by that score. A run needs about three times the input size in free disk space (input, temporary files and
+ * output) in java.io.tmpdir.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class FileSorterBenchmark {
+
+    @Param({"100", "1024"})
+    public int inputMegabytes;
+
+    @Param({"16777216"})
+    public long blockSize;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @Param({"false", "true"})
+    public boolean compressRuns;
+
+    private Path directory;
+    private Path input;
+    private Path output;
+    private Path workspace;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("cereal-sorter-benchmark");
+        input = directory.resolve("input.cereal");
+        output = directory.resolve("output.cereal");
+        workspace = Files.createDirectory(directory.resolve("workspace"));
+
+        final long inputBytes = inputMegabytes * 1024L * 1024L;
+        try (CerealOutputStream cos =
+                     new CerealOutputStream(new BufferedOutputStream(new FileOutputStream(input.toFile()), 65536))) {
+            long written = 0;
+            while (written < inputBytes) {
+                final Forecast forecast = BenchmarkData.forecast();
+                cos.write(forecast);
+                written += ByteArray.cerealize(forecast).length() + 4;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Benchmark
+    public void sort() throws IOException, InstantiationException, IllegalAccessException {
+        final CerealFileSorter<Forecast> sorter =
+                new CerealFileSorter<>(Forecast.class, blockSize, workspace, new SorterTest.ForecastComparator());
+        sorter.setParallelism(parallelism);
+        sorter.setCompressRuns(compressRuns);
+        sorter.sort(input, output);
+    }
+
+    @Benchmark
+    public void sortByKey() throws IOException, InstantiationException, IllegalAccessException {
+        // the timestamp of a Forecast, after its null BitMap, lat and lng.
+        final CerealFileSorter<Forecast> sorter =
+                new CerealFileSorter<>(Forecast.class, blockSize, workspace, CerealKey.longAt(22));
+        sorter.setParallelism(parallelism);
+        sorter.setCompressRuns(compressRuns);
+        sorter.sort(input, output);
+    }
+}
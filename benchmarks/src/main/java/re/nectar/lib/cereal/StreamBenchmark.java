@@ -0,0 +1,76 @@
+package re.nectar.lib.cereal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing Forecasts through a CerealOutputStream, and reading them back through a CerealInputStream, in memory so
+ * that the disk doesn't get in the way.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamBenchmark {
+
+    private static final int RECORDS = 10_000;
+
+    private List<Forecast> forecasts;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        forecasts = BenchmarkData.forecasts(RECORDS);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (CerealOutputStream cos = new CerealOutputStream(baos)) {
+            for (final Forecast forecast : forecasts) {
+                cos.write(forecast);
+            }
+        }
+        encoded = baos.toByteArray();
+    }
+
+    @Benchmark
+    public void write(final BytesCounter counter) throws IOException {
+        try (CerealOutputStream cos =
+                     new CerealOutputStream(new BufferedOutputStream(OutputStream.nullOutputStream(), 65536))) {
+            for (final Forecast forecast : forecasts) {
+                cos.write(forecast);
+            }
+        }
+        counter.bytes += encoded.length;
+    }
+
+    @Benchmark
+    public void read(final BytesCounter counter, final Blackhole blackhole)
+            throws IOException, InstantiationException, IllegalAccessException {
+        try (CerealInputStream cis = new CerealInputStream(new ByteArrayInputStream(encoded))) {
+            Optional<Forecast> readOpt;
+            do {
+                readOpt = cis.read(Forecast.class);
+                blackhole.consume(readOpt);
+            } while (readOpt.isPresent());
+        }
+        counter.bytes += encoded.length;
+    }
+}
@@ -0,0 +1,66 @@
+package re.nectar.lib.cereal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding Strings with ByteArray.add(String) and getString().
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StringBenchmark {
+
+    private static final int STRINGS = 256;
+
+    @Param({"ascii", "utf8"})
+    public String charset;
+
+    private final String[] strings = new String[STRINGS];
+    private final ByteArray writeBuffer = new ByteArray();
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        final ByteArray ba = new ByteArray();
+        for (int t = 0; t < STRINGS; t++) {
+            strings[t] = BenchmarkData.string("ascii".equals(charset), 8, 64);
+            ba.add(strings[t]);
+        }
+        encoded = ba.getAllBytes();
+    }
+
+    @Benchmark
+    public ByteArray encode(final BytesCounter counter) {
+        writeBuffer.reset();
+        for (final String s : strings) {
+            writeBuffer.add(s);
+        }
+        counter.bytes += writeBuffer.length();
+        return writeBuffer;
+    }
+
+    @Benchmark
+    public void decode(final BytesCounter counter, final Blackhole blackhole) {
+        final ByteArray ba = ByteArray.wrap(encoded);
+        for (int t = 0; t < STRINGS; t++) {
+            blackhole.consume(ba.getString());
+        }
+        counter.bytes += encoded.length;
+    }
+}
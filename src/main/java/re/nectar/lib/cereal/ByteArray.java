@@ -5,15 +5,22 @@ import re.nectar.lib.cereal.cerealizer.Cerealizer;
 import javax.naming.SizeLimitExceededException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.lang.reflect.Array;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 /**
  * This class is essentially a wrapper for an array of bytes, and the core tool of Cereal.
@@ -22,6 +29,10 @@ import java.util.UUID;
  * front and back of the ByteArray, and remove bytes from the front. It is very fast on many successive add() operations
  * since new chunks are added as a list, and therefore always O(1).
  * <p>
+ * Primitive values (and small raw byte arrays) are written into a growable tail block owned by the ByteArray, so
+ * successive add() operations don't allocate anything until that block is full. Large raw byte arrays are still
+ * linked in as their own chunk without being copied.
+ * <p>
  * A common use case is to pack a set of mixed raw values (say, an int, a String
  * and a double) into a byte array, then unpack them later.
  * <p>
@@ -29,8 +40,9 @@ import java.util.UUID;
  * so there's no need to copy arrays before passing them to these methods.
  * <p>
  * You can only ever remove bytes from the front of a ByteArray, by using the
- * get{Type}() methods. ByteArray cannot be rewound, since the coalesce() method may
- * free memory at the beginning of the ByteArray as it's being read from, so
+ * get{Type}() methods. Those decode values in place, moving a read cursor through the chunks
+ * and dropping each chunk once it has been read entirely. ByteArray cannot be rewound, since
+ * memory at the beginning of the ByteArray is freed as it's being read from, so
  * it's safe to use this as a backing to a messaging queue between two threads
  * for example.
  * <p>
@@ -41,12 +53,29 @@ import java.util.UUID;
 
 public class ByteArray implements Cerealizable {
     private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final int MIN_BLOCK_SIZE = 256;
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+    // raw byte arrays shorter than this are copied into the tail block rather than linked in as their own chunk.
+    private static final int RAW_COPY_THRESHOLD = 64;
+    private static final int MAX_VAR_INT_SIZE = 5;
+    private static final int MAX_VAR_LONG_SIZE = 10;
     private int length = 0;
     private Chunk front = null;
     private Chunk back = null;
+    // the tail block primitives are written into, and the index of its first free byte.
+    private byte[] block = null;
+    private int blockPos = 0;
+    private Chunk spareChunk = null;
+    // the charset of the Strings.
+    private Charset charset = StandardCharsets.UTF_8;
+
+    // big endian views on byte arrays, which the JIT compiles down to single (byte swapped) loads and stores.
+    private static final VarHandle SHORT_HANDLE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT_HANDLE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG_HANDLE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
 
     public ByteArray(final byte[] b) {
-        addRawBytes(b);
+        linkRawBytes(b, 0, b.length);
     }
 
     public ByteArray() {
@@ -60,17 +89,19 @@ public class ByteArray implements Cerealizable {
      * @param ba
      */
     public ByteArray(final ByteArray ba) {
-        ba.coalesce();
-        final byte[] copyBuffer = new byte[ba.front.length];
-        System.arraycopy(ba.front.array, 0, copyBuffer, 0, ba.front.array.length);
-        front = back = makeChunk(copyBuffer, 0, copyBuffer.length);
-        length = ba.length;
+        charset = ba.charset;
+        if (ba.length > 0) {
+            final byte[] copyBuffer = new byte[ba.length];
+            ba.copyTo(copyBuffer, 0);
+            front = back = makeChunk(copyBuffer, 0, copyBuffer.length);
+            length = ba.length;
+        }
     }
 
     public ByteArray(final ByteBuffer byteBuffer) {
         final byte[] bytes = new byte[byteBuffer.remaining()];
         byteBuffer.get(bytes);
-        addRawBytes(bytes);
+        linkRawBytes(bytes, 0, bytes.length);
     }
 
     public static ByteArray wrap(final byte[] bytes) {
@@ -82,45 +113,27 @@ public class ByteArray implements Cerealizable {
     }
 
     public static short bytesToShort(final byte[] array, final int offset) {
-        short n = 0;
-        n ^= (short) (array[offset] & 0xFF);
-        n <<= 8;
-        n ^= (short) (array[offset + 1] & 0xFF);
-        return n;
+        return (short) SHORT_HANDLE.get(array, offset);
     }
 
-    public static void shortToBytes(short val, final byte[] byteBuff, final int offset) {
-        byteBuff[offset + 1] = (byte) val;
-        val >>= 8;
-        byteBuff[offset] = (byte) val;
+    public static void shortToBytes(final short val, final byte[] byteBuff, final int offset) {
+        SHORT_HANDLE.set(byteBuff, offset, val);
     }
 
     public static long bytesToLong(final byte[] array, final int offset) {
-        long l = 0;
-        for (int i = offset; i < offset + 8; i++) {
-            l <<= 8;
-            l ^= array[i] & 0xFF;
-        }
-        return l;
+        return (long) LONG_HANDLE.get(array, offset);
     }
 
-    public static void longToBytes(long l, final byte[] bb, final int offset) {
-        for (int i = 7 + offset; i > offset; i--) {
-            bb[i] = (byte) l;
-            l >>>= 8;
-        }
-        bb[offset] = (byte) l;
+    public static void longToBytes(final long l, final byte[] bb, final int offset) {
+        LONG_HANDLE.set(bb, offset, l);
     }
 
     public static int bytesToInt(final byte[] array, final int offset) {
-        return array[offset] << 24 | (array[offset + 1] & 0xFF) << 16 | (array[offset + 2] & 0xFF) << 8
-                | (array[offset + 3] & 0xFF);
+        return (int) INT_HANDLE.get(array, offset);
     }
 
     public static void intToBytes(final int i, final byte[] byteBuff, final int offset) {
-        for (int t = 0; t < 4; t++) {
-            byteBuff[offset + t] = (byte) (i >> (4 - (t + 1)) * 8);
-        }
+        INT_HANDLE.set(byteBuff, offset, i);
     }
 
     /**
@@ -151,6 +164,98 @@ public class ByteArray implements Cerealizable {
         return Float.intBitsToFloat(bytesToInt(array, offset));
     }
 
+    /**
+     * Writes count ints from values, starting at valuesOffset, to bb starting at offset. Produces the same bytes as
+     * count successive calls to {@link #intToBytes(int, byte[], int)}.
+     */
+    public static void intsToBytes(final int[] values, final int valuesOffset, final byte[] bb, final int offset, final int count) {
+        Objects.checkFromIndexSize(valuesOffset, count, values.length);
+        Objects.checkFromIndexSize(offset, count * 4L, bb.length);
+        for (int t = 0; t < count; t++) {
+            INT_HANDLE.set(bb, offset + t * 4, values[valuesOffset + t]);
+        }
+    }
+
+    /**
+     * Reads count ints from array starting at offset, into values starting at valuesOffset.
+     */
+    public static void bytesToInts(final byte[] array, final int offset, final int[] values, final int valuesOffset, final int count) {
+        Objects.checkFromIndexSize(valuesOffset, count, values.length);
+        Objects.checkFromIndexSize(offset, count * 4L, array.length);
+        for (int t = 0; t < count; t++) {
+            values[valuesOffset + t] = (int) INT_HANDLE.get(array, offset + t * 4);
+        }
+    }
+
+    /**
+     * Writes count longs from values, starting at valuesOffset, to bb starting at offset. Produces the same bytes as
+     * count successive calls to {@link #longToBytes(long, byte[], int)}.
+     */
+    public static void longsToBytes(final long[] values, final int valuesOffset, final byte[] bb, final int offset, final int count) {
+        Objects.checkFromIndexSize(valuesOffset, count, values.length);
+        Objects.checkFromIndexSize(offset, count * 8L, bb.length);
+        for (int t = 0; t < count; t++) {
+            LONG_HANDLE.set(bb, offset + t * 8, values[valuesOffset + t]);
+        }
+    }
+
+    /**
+     * Reads count longs from array starting at offset, into values starting at valuesOffset.
+     */
+    public static void bytesToLongs(final byte[] array, final int offset, final long[] values, final int valuesOffset, final int count) {
+        Objects.checkFromIndexSize(valuesOffset, count, values.length);
+        Objects.checkFromIndexSize(offset, count * 8L, array.length);
+        for (int t = 0; t < count; t++) {
+            values[valuesOffset + t] = (long) LONG_HANDLE.get(array, offset + t * 8);
+        }
+    }
+
+    /**
+     * Writes count floats from values, starting at valuesOffset, to bb starting at offset. Produces the same bytes as
+     * count successive calls to {@link #floatToBytes(float, byte[], int)}.
+     */
+    public static void floatsToBytes(final float[] values, final int valuesOffset, final byte[] bb, final int offset, final int count) {
+        Objects.checkFromIndexSize(valuesOffset, count, values.length);
+        Objects.checkFromIndexSize(offset, count * 4L, bb.length);
+        for (int t = 0; t < count; t++) {
+            INT_HANDLE.set(bb, offset + t * 4, Float.floatToIntBits(values[valuesOffset + t]));
+        }
+    }
+
+    /**
+     * Reads count floats from array starting at offset, into values starting at valuesOffset.
+     */
+    public static void bytesToFloats(final byte[] array, final int offset, final float[] values, final int valuesOffset, final int count) {
+        Objects.checkFromIndexSize(valuesOffset, count, values.length);
+        Objects.checkFromIndexSize(offset, count * 4L, array.length);
+        for (int t = 0; t < count; t++) {
+            values[valuesOffset + t] = Float.intBitsToFloat((int) INT_HANDLE.get(array, offset + t * 4));
+        }
+    }
+
+    /**
+     * Writes count doubles from values, starting at valuesOffset, to bb starting at offset. Produces the same bytes as
+     * count successive calls to {@link #doubleToBytes(double, byte[], int)}.
+     */
+    public static void doublesToBytes(final double[] values, final int valuesOffset, final byte[] bb, final int offset, final int count) {
+        Objects.checkFromIndexSize(valuesOffset, count, values.length);
+        Objects.checkFromIndexSize(offset, count * 8L, bb.length);
+        for (int t = 0; t < count; t++) {
+            LONG_HANDLE.set(bb, offset + t * 8, Double.doubleToLongBits(values[valuesOffset + t]));
+        }
+    }
+
+    /**
+     * Reads count doubles from array starting at offset, into values starting at valuesOffset.
+     */
+    public static void bytesToDoubles(final byte[] array, final int offset, final double[] values, final int valuesOffset, final int count) {
+        Objects.checkFromIndexSize(valuesOffset, count, values.length);
+        Objects.checkFromIndexSize(offset, count * 8L, array.length);
+        for (int t = 0; t < count; t++) {
+            values[valuesOffset + t] = Double.longBitsToDouble((long) LONG_HANDLE.get(array, offset + t * 8));
+        }
+    }
+
 
     /**
      * Cerealizes an object to a byte array
@@ -192,7 +297,13 @@ public class ByteArray implements Cerealizable {
             throw new ArrayIndexOutOfBoundsException();
         }
 
-        final Chunk tree = new Chunk();
+        final Chunk tree;
+        if (spareChunk != null) {
+            tree = spareChunk;
+            spareChunk = null;
+        } else {
+            tree = new Chunk();
+        }
         tree.array = b;
         tree.startIdx = fromIdx;
         tree.length = length;
@@ -218,7 +329,39 @@ public class ByteArray implements Cerealizable {
         if (length == 0) {
             return;
         }
-        final Chunk chunk = makeChunk(b, fromIdx, length);
+        if (length < RAW_COPY_THRESHOLD) {
+            // cheaper to copy a few bytes than to link in yet another chunk.
+            if (fromIdx + length > b.length) {
+                throw new ArrayIndexOutOfBoundsException();
+            }
+            final int idx = reserve(length);
+            System.arraycopy(b, fromIdx, block, idx, length);
+            return;
+        }
+        linkRawBytes(b, fromIdx, length);
+    }
+
+    /**
+     * Appends the given bytes as their own chunk, without copying them.
+     */
+    private void linkRawBytes(final byte[] b, final int fromIdx, final int length) {
+        if (length == 0) {
+            return;
+        }
+        appendChunk(makeChunk(b, fromIdx, length));
+        this.length += length;
+    }
+
+    /**
+     * Keeps a chunk that is no longer part of this ByteArray, so that the next makeChunk() doesn't need to allocate one.
+     */
+    private void recycle(final Chunk chunk) {
+        chunk.array = null;
+        chunk.next = null;
+        spareChunk = chunk;
+    }
+
+    private void appendChunk(final Chunk chunk) {
         if (front == null) {
             front = chunk;
             back = chunk;
@@ -226,7 +369,48 @@ public class ByteArray implements Cerealizable {
             back.next = chunk;
             back = chunk;
         }
-        this.length += chunk.length;
+    }
+
+    /**
+     * Makes room for numBytes at the end of this ByteArray, in the tail block.
+     *
+     * @return the index in the tail block at which the numBytes must be written.
+     */
+    private int reserve(final int numBytes) {
+        if (block == null || blockPos + numBytes > block.length) {
+            growBlock(numBytes);
+        }
+        if (back == null || back.array != block || back.startIdx + back.length != blockPos) {
+            appendChunk(makeChunk(block, blockPos, 0));
+        }
+        final int idx = blockPos;
+        blockPos += numBytes;
+        back.length += numBytes;
+        length += numBytes;
+        return idx;
+    }
+
+    /**
+     * Starts a new tail block, twice as large as the previous one (up to MAX_BLOCK_SIZE), and at least minBytes long.
+     * The previous block is left to the chunks that still point to it.
+     */
+    private void growBlock(final int minBytes) {
+        final int size = (block == null) ? MIN_BLOCK_SIZE : Math.min(block.length * 2, MAX_BLOCK_SIZE);
+        block = new byte[Math.max(size, minBytes)];
+        blockPos = 0;
+    }
+
+    /**
+     * Copies all the bytes of this ByteArray into dest, starting at destIdx, without changing this ByteArray.
+     */
+    void copyTo(final byte[] dest, final int destIdx) {
+        int i = destIdx;
+        Chunk cursor = front;
+        while (cursor != null) {
+            System.arraycopy(cursor.array, cursor.startIdx, dest, i, cursor.length);
+            i += cursor.length;
+            cursor = cursor.next;
+        }
     }
 
     /**
@@ -245,17 +429,12 @@ public class ByteArray implements Cerealizable {
             return;
         }
         final byte[] bb = new byte[length];
-
-        int i = 0;
-        Chunk cursor = front;
-        while (cursor != null) {
-            System.arraycopy(cursor.array, cursor.startIdx, bb, i, cursor.length);
-            i += cursor.length;
-            cursor = cursor.next;
-        }
+        copyTo(bb, 0);
 
         front = makeChunk(bb, 0, length);
         back = front;
+        // no chunk points to the tail block anymore, so it can be written over from the start.
+        blockPos = 0;
     }
 
     public int length() {
@@ -266,48 +445,99 @@ public class ByteArray implements Cerealizable {
         if (numBytes == 0) {
             return new byte[0];
         }
+        require(numBytes);
+        final byte[] ret = new byte[numBytes];
+        int i = 0;
+        while (i < numBytes) {
+            final int n = Math.min(front.length, numBytes - i);
+            System.arraycopy(front.array, front.startIdx, ret, i, n);
+            i += n;
+            skip(n);
+        }
+        return ret;
+    }
+
+    private void require(final int numBytes) {
         if (numBytes > this.length) {
             throw new ArrayIndexOutOfBoundsException(
                     "Tried to remove " + numBytes + ", while length is " + this.length);
         }
-        coalesce();
-        final byte[] ret = new byte[numBytes];
-        System.arraycopy(front.array, front.startIdx, ret, 0, numBytes);
+    }
 
-        if (front.length - numBytes == 0) {
-            front = null;
-            length = 0;
-        } else {
-            front.startIdx += numBytes;
-            front.length -= numBytes;
-            length = front.length;
+    /**
+     * Moves the read cursor numBytes forward in the front chunk, dropping that chunk once it has been read entirely.
+     * numBytes may not exceed the length of the front chunk.
+     */
+    private void skip(final int numBytes) {
+        front.startIdx += numBytes;
+        front.length -= numBytes;
+        length -= numBytes;
+        if (front.length == 0) {
+            final Chunk read = front;
+            front = front.next;
+            recycle(read);
+            if (front == null) {
+                back = null;
+                // no chunk points to the tail block anymore, so it can be written over from the start.
+                blockPos = 0;
+            }
         }
-        back = front;
-        return ret;
+    }
+
+    /**
+     * Reads numBytes (up to 8) as a big endian value, one byte at a time. This is only used for values that straddle
+     * two chunks, everything else is decoded in place from the front chunk.
+     */
+    private long readStraddling(final int numBytes) {
+        require(numBytes);
+        long bits = 0;
+        for (int i = 0; i < numBytes; i++) {
+            bits = (bits << 8) | (front.array[front.startIdx] & 0xFF);
+            skip(1);
+        }
+        return bits;
     }
 
     public byte getByte() {
-        return remove(1)[0];
+        require(1);
+        final byte b = front.array[front.startIdx];
+        skip(1);
+        return b;
     }
 
     public short getShort() {
-        return bytesToShort(remove(2), 0);
+        if (front == null || front.length < 2) {
+            return (short) readStraddling(2);
+        }
+        final short s = bytesToShort(front.array, front.startIdx);
+        skip(2);
+        return s;
     }
 
     public int getInt() {
-        return bytesToInt(remove(4), 0);
+        if (front == null || front.length < 4) {
+            return (int) readStraddling(4);
+        }
+        final int i = bytesToInt(front.array, front.startIdx);
+        skip(4);
+        return i;
     }
 
     public long getLong() {
-        return bytesToLong(remove(8), 0);
+        if (front == null || front.length < 8) {
+            return readStraddling(8);
+        }
+        final long l = bytesToLong(front.array, front.startIdx);
+        skip(8);
+        return l;
     }
 
     public double getDouble() {
-        return bytesToDouble(remove(8), 0);
+        return Double.longBitsToDouble(getLong());
     }
 
     public float getFloat() {
-        return bytesToFloat(remove(4), 0);
+        return Float.intBitsToFloat(getInt());
     }
 
     public String getString() {
@@ -315,23 +545,50 @@ public class ByteArray implements Cerealizable {
         if (len == -1) {
             return null;
         }
-        final byte[] sb = remove(len);
+        return getString(len);
+    }
+
+    /**
+     * Reads a String written by {@link #addVarString(String)}.
+     */
+    public String getVarString() {
+        final int len = getVarInt();
+        if (len == 0) {
+            return null;
+        }
+        return getString(len - 1);
+    }
 
-        final CharsetDecoder dec = Charset.defaultCharset().newDecoder();
+    /**
+     * Decodes the next len bytes as a String, in place if they are all in the front chunk. This is for formats which
+     * store the length of their Strings themselves, see {@link #stringBytes(String)}.
+     */
+    public String getString(final int len) {
+        if (front != null && front.length >= len) {
+            final String s = decode(front.array, front.startIdx, len);
+            if (len > 0) {
+                skip(len);
+            }
+            return s;
+        }
+        return decode(remove(len), 0, len);
+    }
+
+    private String decode(final byte[] bytes, final int offset, final int len) {
+        if (charset == StandardCharsets.UTF_8) {
+            return new String(bytes, offset, len, StandardCharsets.UTF_8);
+        }
+        final CharsetDecoder dec = charset.newDecoder();
         dec.onMalformedInput(CodingErrorAction.IGNORE);
         try {
-            return dec.decode(ByteBuffer.wrap(sb)).toString();
+            return dec.decode(ByteBuffer.wrap(bytes, offset, len)).toString();
         } catch (final CharacterCodingException e) {
             throw new RuntimeException(e);
         }
     }
 
     public boolean getBoolean() {
-        final byte[] b = remove(1);
-        if (b[0] == 0) {
-            return false;
-        }
-        return true;
+        return getByte() != 0;
     }
 
     public UUID getUUID() {
@@ -340,6 +597,85 @@ public class ByteArray implements Cerealizable {
         return new UUID(most, least);
     }
 
+    /**
+     * Reads an int written by {@link #addVarInt(int)}.
+     */
+    public int getVarInt() {
+        final long value = getVarLong(MAX_VAR_INT_SIZE);
+        if (value >>> 32 != 0) {
+            throw new IllegalStateException("Malformed var int, larger than 32 bits");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads a long written by {@link #addVarLong(long)}. Decoded in place when the whole var long is in the front chunk.
+     */
+    public long getVarLong() {
+        return getVarLong(MAX_VAR_LONG_SIZE);
+    }
+
+    private long getVarLong(final int maxSize) {
+        if (front != null) {
+            final byte[] array = front.array;
+            final int start = front.startIdx;
+            final int end = start + Math.min(front.length, maxSize);
+            long value = 0;
+            for (int i = start, shift = 0; i < end; i++, shift += 7) {
+                final byte b = array[i];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    checkLastVarLongByte(i - start, b);
+                    skip(i + 1 - start);
+                    return value;
+                }
+            }
+        }
+        return readVarLongStraddling(maxSize);
+    }
+
+    /**
+     * Reads a var long one byte at a time, for the var longs that straddle two chunks.
+     */
+    private long readVarLongStraddling(final int maxSize) {
+        long value = 0;
+        for (int size = 0; size < maxSize; size++) {
+            final byte b = getByte();
+            value |= (long) (b & 0x7F) << (7 * size);
+            if (b >= 0) {
+                checkLastVarLongByte(size, b);
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed var " + (maxSize == MAX_VAR_INT_SIZE ? "int" : "long")
+                + ", longer than " + maxSize + " bytes");
+    }
+
+    /**
+     * The 10th byte of a var long only holds bit 63: any other bit would be shifted out of the long.
+     */
+    private static void checkLastVarLongByte(final int index, final byte b) {
+        if (index == MAX_VAR_LONG_SIZE - 1 && b > 1) {
+            throw new IllegalStateException("Malformed var long, larger than 64 bits");
+        }
+    }
+
+    /**
+     * Reads an int written by {@link #addSignedVarInt(int)}.
+     */
+    public int getSignedVarInt() {
+        final int n = getVarInt();
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Reads a long written by {@link #addSignedVarLong(long)}.
+     */
+    public long getSignedVarLong() {
+        final long n = getVarLong();
+        return (n >>> 1) ^ -(n & 1);
+    }
+
     public void addByteArray(final byte[] b) {
         if (b == null) {
             add(-1);
@@ -377,9 +713,8 @@ public class ByteArray implements Cerealizable {
     }
 
     public void add(final byte b) {
-        final byte[] ba = new byte[1];
-        ba[0] = b;
-        addRawBytes(ba);
+        final int idx = reserve(1);
+        block[idx] = b;
     }
 
     public void addIfNotNull(final Byte value) {
@@ -389,9 +724,8 @@ public class ByteArray implements Cerealizable {
     }
 
     public void add(final short s) {
-        final byte[] b = new byte[2];
-        shortToBytes(s, b, 0);
-        addRawBytes(b);
+        final int idx = reserve(2);
+        shortToBytes(s, block, idx);
     }
 
     public void addIfNotNull(final Short value) {
@@ -401,9 +735,8 @@ public class ByteArray implements Cerealizable {
     }
 
     public void add(final int i) {
-        final byte[] b = new byte[4];
-        intToBytes(i, b, 0);
-        addRawBytes(b);
+        final int idx = reserve(4);
+        intToBytes(i, block, idx);
     }
 
     public void addIfNotNull(final Integer value) {
@@ -425,9 +758,8 @@ public class ByteArray implements Cerealizable {
     }
 
     public void add(final long l) {
-        final byte[] b = new byte[8];
-        longToBytes(l, b, 0);
-        addRawBytes(b);
+        final int idx = reserve(8);
+        longToBytes(l, block, idx);
     }
 
     public void addToFront(final double d) {
@@ -438,9 +770,8 @@ public class ByteArray implements Cerealizable {
     }
 
     public void add(final double d) {
-        final byte[] b = new byte[8];
-        doubleToBytes(d, b, 0);
-        addRawBytes(b);
+        final int idx = reserve(8);
+        doubleToBytes(d, block, idx);
     }
 
     public void addIfNotNull(final Double value) {
@@ -456,9 +787,8 @@ public class ByteArray implements Cerealizable {
     }
 
     public void add(final float f) {
-        final byte[] b = new byte[4];
-        floatToBytes(f, b, 0);
-        addRawBytes(b);
+        final int idx = reserve(4);
+        floatToBytes(f, block, idx);
     }
 
     public void addIfNotNull(final Float value) {
@@ -471,7 +801,7 @@ public class ByteArray implements Cerealizable {
         if (s == null) {
             addToFront(0);
         } else {
-            final byte[] b = s.getBytes();
+            final byte[] b = encode(s);
             addRawBytesToFront(b);
             addToFront(b.length);
         }
@@ -481,24 +811,53 @@ public class ByteArray implements Cerealizable {
         if (s == null) {
             add(-1);
         } else {
-            final CharsetEncoder enc = Charset.defaultCharset().newEncoder();
-            enc.onMalformedInput(CodingErrorAction.REPLACE);
-            enc.onUnmappableCharacter(CodingErrorAction.REPLACE);
-            enc.replaceWith("$".getBytes());
-            final byte[] ba;
-            try {
-                final ByteBuffer bb = enc.encode(CharBuffer.wrap(s));
-                bb.rewind();
-                ba = new byte[bb.remaining()];
-                bb.get(ba);
-            } catch (final CharacterCodingException e) {
-                throw new RuntimeException(e);
-            }
+            final byte[] ba = encode(s);
             add(ba.length);
             addRawBytes(ba);
         }
     }
 
+    /**
+     * @return the bytes of s in the charset of the Strings, without a length, to be read back with
+     * {@link #getString(int)}.
+     */
+    public byte[] stringBytes(final String s) {
+        return encode(s);
+    }
+
+    /**
+     * Adds a String prefixed by its length as a var int, rather than a 4 bytes int: most Strings take 3 bytes less. The
+     * length is stored plus one, so that 0 means null. Read back with {@link #getVarString()}.
+     */
+    public void addVarString(final String s) {
+        if (s == null) {
+            addVarInt(0);
+        } else {
+            final byte[] ba = encode(s);
+            addVarInt(ba.length + 1);
+            addRawBytes(ba);
+        }
+    }
+
+    private byte[] encode(final String s) {
+        if (charset == StandardCharsets.UTF_8) {
+            return s.getBytes(StandardCharsets.UTF_8);
+        }
+        final CharsetEncoder enc = charset.newEncoder();
+        enc.onMalformedInput(CodingErrorAction.REPLACE);
+        enc.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        enc.replaceWith("$".getBytes());
+        try {
+            final ByteBuffer bb = enc.encode(CharBuffer.wrap(s));
+            bb.rewind();
+            final byte[] ba = new byte[bb.remaining()];
+            bb.get(ba);
+            return ba;
+        } catch (final CharacterCodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void addIfNotNull(final String value) {
         if (value != null) {
             add(value);
@@ -512,9 +871,8 @@ public class ByteArray implements Cerealizable {
     }
 
     public void add(final boolean bool) {
-        final byte[] b = new byte[1];
-        b[0] = (byte) ((bool) ? 1 : 0);
-        addRawBytes(b);
+        final int idx = reserve(1);
+        block[idx] = (byte) ((bool) ? 1 : 0);
     }
 
     public void addIfNotNull(final Boolean value) {
@@ -534,6 +892,51 @@ public class ByteArray implements Cerealizable {
         }
     }
 
+    /**
+     * Adds an int as a var int: 7 bits per byte, least significant first, the high bit of each byte set if more bytes
+     * follow. Ints below 128 take 1 byte, below 16384 2 bytes, and so on up to 5 bytes. Negative ints always take 5
+     * bytes, use {@link #addSignedVarInt(int)} for ints that can be negative.
+     */
+    public void addVarInt(final int i) {
+        addVarLong(i & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Adds a long as a var long, the same way as {@link #addVarInt(int)}, in 1 to 10 bytes.
+     */
+    public void addVarLong(long l) {
+        final int size = varLongSize(l);
+        final int idx = reserve(size);
+        final int last = idx + size - 1;
+        for (int i = idx; i < last; i++) {
+            block[i] = (byte) (l | 0x80);
+            l >>>= 7;
+        }
+        block[last] = (byte) l;
+    }
+
+    /**
+     * Adds an int as a ZigZag var int, which maps small negative ints to small var ints as well: 0, -1, 1, -2, 2... are
+     * written as 0, 1, 2, 3, 4...
+     */
+    public void addSignedVarInt(final int i) {
+        addVarInt((i << 1) ^ (i >> 31));
+    }
+
+    /**
+     * Adds a long as a ZigZag var long, see {@link #addSignedVarInt(int)}.
+     */
+    public void addSignedVarLong(final long l) {
+        addVarLong((l << 1) ^ (l >> 63));
+    }
+
+    /**
+     * @return the number of bytes {@link #addVarLong(long)} writes for l.
+     */
+    public static int varLongSize(final long l) {
+        return (63 - Long.numberOfLeadingZeros(l | 1)) / 7 + 1;
+    }
+
     public <T extends Cerealizable> void add(final T cerealizable) {
         cerealizable.cerealizeTo(this);
     }
@@ -542,6 +945,10 @@ public class ByteArray implements Cerealizable {
         return uncerealize(clazz);
     }
 
+    public <T extends Cerealizable> T get(final Supplier<T> factory) {
+        return uncerealize(factory);
+    }
+
     /**
      * add a array of Cerealizable objects to this ByteArray
      *
@@ -560,9 +967,10 @@ public class ByteArray implements Cerealizable {
      */
     @SuppressWarnings("unchecked")
     public <T extends Cerealizable> T[] getArray(final Class<T> clazz) {
+        final Supplier<T> factory = CerealFactory.of(clazz);
         final T[] array = (T[]) Array.newInstance(clazz, getInt());
         for (int i = 0; i < array.length; i++) {
-            array[i] = uncerealize(clazz);
+            array[i] = uncerealize(factory);
         }
         return array;
     }
@@ -673,6 +1081,166 @@ public class ByteArray implements Cerealizable {
         return sb;
     }
 
+    /**
+     * Adds the length of values (-1 for null), then every value as a big endian int. The values are written as one
+     * contiguous block, in bulk, but the bytes are the same as adding the length and then each value.
+     */
+    public void add(final int[] values) {
+        if (values == null) {
+            add(-1);
+            return;
+        }
+        final int idx = reserve(Math.addExact(4, Math.multiplyExact(values.length, 4)));
+        intToBytes(values.length, block, idx);
+        intsToBytes(values, 0, block, idx + 4, values.length);
+    }
+
+    /**
+     * Reads an array added by {@link #add(int[])}, straight into the returned array.
+     */
+    public int[] getIntArray() {
+        final int len = getInt();
+        if (len == -1) {
+            return null;
+        }
+        requireArray(len, 4);
+        final int[] values = new int[len];
+        int t = 0;
+        while (t < len) {
+            // decode the whole values of the front chunk in place, and the value that straddles two chunks on its own.
+            final int n = Math.min(front.length / 4, len - t);
+            if (n == 0) {
+                values[t++] = (int) readStraddling(4);
+                continue;
+            }
+            bytesToInts(front.array, front.startIdx, values, t, n);
+            skip(n * 4);
+            t += n;
+        }
+        return values;
+    }
+
+    /**
+     * Adds the length of values (-1 for null), then every value as a big endian long, in bulk. See {@link #add(int[])}.
+     */
+    public void add(final long[] values) {
+        if (values == null) {
+            add(-1);
+            return;
+        }
+        final int idx = reserve(Math.addExact(4, Math.multiplyExact(values.length, 8)));
+        intToBytes(values.length, block, idx);
+        longsToBytes(values, 0, block, idx + 4, values.length);
+    }
+
+    /**
+     * Reads an array added by {@link #add(long[])}, straight into the returned array.
+     */
+    public long[] getLongArray() {
+        final int len = getInt();
+        if (len == -1) {
+            return null;
+        }
+        requireArray(len, 8);
+        final long[] values = new long[len];
+        int t = 0;
+        while (t < len) {
+            final int n = Math.min(front.length / 8, len - t);
+            if (n == 0) {
+                values[t++] = readStraddling(8);
+                continue;
+            }
+            bytesToLongs(front.array, front.startIdx, values, t, n);
+            skip(n * 8);
+            t += n;
+        }
+        return values;
+    }
+
+    /**
+     * Adds the length of values (-1 for null), then every value as a big endian float, in bulk. See {@link #add(int[])}.
+     */
+    public void add(final float[] values) {
+        if (values == null) {
+            add(-1);
+            return;
+        }
+        final int idx = reserve(Math.addExact(4, Math.multiplyExact(values.length, 4)));
+        intToBytes(values.length, block, idx);
+        floatsToBytes(values, 0, block, idx + 4, values.length);
+    }
+
+    /**
+     * Reads an array added by {@link #add(float[])}, straight into the returned array.
+     */
+    public float[] getFloatArray() {
+        final int len = getInt();
+        if (len == -1) {
+            return null;
+        }
+        requireArray(len, 4);
+        final float[] values = new float[len];
+        int t = 0;
+        while (t < len) {
+            final int n = Math.min(front.length / 4, len - t);
+            if (n == 0) {
+                values[t++] = Float.intBitsToFloat((int) readStraddling(4));
+                continue;
+            }
+            bytesToFloats(front.array, front.startIdx, values, t, n);
+            skip(n * 4);
+            t += n;
+        }
+        return values;
+    }
+
+    /**
+     * Adds the length of values (-1 for null), then every value as a big endian double, in bulk. See {@link #add(int[])}.
+     */
+    public void add(final double[] values) {
+        if (values == null) {
+            add(-1);
+            return;
+        }
+        final int idx = reserve(Math.addExact(4, Math.multiplyExact(values.length, 8)));
+        intToBytes(values.length, block, idx);
+        doublesToBytes(values, 0, block, idx + 4, values.length);
+    }
+
+    /**
+     * Reads an array added by {@link #add(double[])}, straight into the returned array.
+     */
+    public double[] getDoubleArray() {
+        final int len = getInt();
+        if (len == -1) {
+            return null;
+        }
+        requireArray(len, 8);
+        final double[] values = new double[len];
+        int t = 0;
+        while (t < len) {
+            final int n = Math.min(front.length / 8, len - t);
+            if (n == 0) {
+                values[t++] = Double.longBitsToDouble(readStraddling(8));
+                continue;
+            }
+            bytesToDoubles(front.array, front.startIdx, values, t, n);
+            skip(n * 8);
+            t += n;
+        }
+        return values;
+    }
+
+    /**
+     * Checks that len values of valueSize bytes are left, before allocating an array for them.
+     */
+    private void requireArray(final int len, final int valueSize) {
+        if (len < 0 || (long) len * valueSize > this.length) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "Tried to remove " + len + " values of " + valueSize + " bytes, while length is " + this.length);
+        }
+    }
+
     /**
      * Removes all the bytes of this ByteArray and returns them. This ByteArray will be empty.
      */
@@ -684,19 +1252,62 @@ public class ByteArray implements Cerealizable {
      * Creates a copy of the coalesced internal data array, This ByteArray will not change.
      */
     public byte[] copyAllBytes() {
-        coalesce();
-        byte[] copy = new byte[front.array.length];
-        System.arraycopy(front.array, 0, copy, 0, front.array.length);
+        byte[] copy = new byte[length];
+        copyTo(copy, 0);
         return copy;
     }
 
     /**
-     * resets this ByteArray to contain nothing.
+     * Writes all the bytes of this ByteArray to the output stream, chunk by chunk, without coalescing or copying them.
+     * This ByteArray will not change.
+     */
+    public void writeTo(final OutputStream outputStream) throws IOException {
+        Chunk cursor = front;
+        while (cursor != null) {
+            outputStream.write(cursor.array, cursor.startIdx, cursor.length);
+            cursor = cursor.next;
+        }
+    }
+
+    /**
+     * Sets the charset the Strings are written and read in, which is UTF-8 by default. Earlier versions used the
+     * platform default charset: to read their files on a platform where it isn't UTF-8, use
+     * {@link Charset#defaultCharset()}, or the charset they were written with. It's kept by {@link #reset()} and by
+     * copies.
+     */
+    public void setCharset(final Charset charset) {
+        // the same instance, so that the UTF-8 fast path is taken.
+        this.charset = Objects.requireNonNull(charset).equals(StandardCharsets.UTF_8) ? StandardCharsets.UTF_8 : charset;
+    }
+
+    public Charset charset() {
+        return charset;
+    }
+
+    /**
+     * resets this ByteArray to contain nothing. The tail block is kept, and will be reused by the next add() operations,
+     * unless a large add() grew it beyond the usual block size.
      */
     public void reset() {
+        if (back != null) {
+            // keep a chunk too, so that a ByteArray reused for many small objects allocates nothing.
+            recycle(back);
+        }
+        if (block != null && block.length > MAX_BLOCK_SIZE) {
+            // a long-lived ByteArray, like the scratch of a stream, must not hold on to the block of its largest object.
+            block = null;
+        }
         front = null;
         back = null;
         length = 0;
+        blockPos = 0;
+    }
+
+    /**
+     * @return the size of the tail block, or 0 if there is none.
+     */
+    int blockCapacity() {
+        return block == null ? 0 : block.length;
     }
 
     /**
@@ -706,7 +1317,16 @@ public class ByteArray implements Cerealizable {
      */
     public void reset(final byte[] value) {
         reset();
-        addRawBytes(value);
+        linkRawBytes(value, 0, value.length);
+    }
+
+    /**
+     * resets this ByteArray to contain length bytes of the given array, starting at fromIdx. The bytes are not copied,
+     * so they must not change while this ByteArray is being read from.
+     */
+    public void reset(final byte[] value, final int fromIdx, final int length) {
+        reset();
+        linkRawBytes(value, fromIdx, length);
     }
 
     /**
@@ -789,22 +1409,33 @@ public class ByteArray implements Cerealizable {
         return byteArray;
     }
 
+    /**
+     * @throws IllegalArgumentException if clazz has no constructor without arguments.
+     */
     @SuppressWarnings("unchecked")
     public <T extends Cerealizable> T uncerealize(final Class<? extends Cerealizable> clazz) {
-        Cerealizable cerealizable = null;
-        try {
-            cerealizable = clazz.newInstance();
-        } catch (final InstantiationException | IllegalAccessException e) {
-            throw new IllegalArgumentException(e);
-        }
+        return (T) uncerealize(CerealFactory.of(clazz));
+    }
+
+    /**
+     * Uncerealizes into a new object from factory, for example {@code Forecast::new}.
+     */
+    public <T extends Cerealizable> T uncerealize(final Supplier<T> factory) {
+        final T cerealizable = factory.get();
         cerealizable.uncerealizeFrom(this);
-        return (T) cerealizable;
+        return cerealizable;
     }
 
     @Override
     public void cerealizeTo(final ByteArray ba) {
-        coalesce();
-        ba.addByteArray(front.array);
+        // copy rather than link our chunks, since our tail block will be written over after a reset().
+        ba.add(length);
+        Chunk cursor = front;
+        while (cursor != null) {
+            final int idx = ba.reserve(cursor.length);
+            System.arraycopy(cursor.array, cursor.startIdx, ba.block, idx, cursor.length);
+            cursor = cursor.next;
+        }
     }
 
     @Override
@@ -0,0 +1,31 @@
+package re.nectar.lib.cereal;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generates a {@link re.nectar.lib.cereal.cerealizer.Cerealizer} for the annotated class or record at compile time,
+ * named after it: {@code ForecastCerealizer} for {@code Forecast}, {@code Outer_InnerCerealizer} for a nested
+ * {@code Outer.Inner}. The generated code calls the ByteArray methods directly, without any reflection.
+ * <p>
+ * Every non static, non transient field is cerealized (the superclass fields first), or every component of a record.
+ * Fields are accessed directly, or through their getter and setter when they are not visible from the package. The
+ * cerealized layout is the one of a hand written {@code cerealizeTo()}:
+ * <ol>
+ * <li>a {@link BitMap} of the fields that can be null, whose bit is set when the field is null, if there are any,</li>
+ * <li>the primitive fields, in declaration order, written in one go,</li>
+ * <li>the other fields in declaration order: the fields that can be null are only written when they are not.</li>
+ * </ol>
+ * Supported types are primitives (except char), their boxed types, String, UUID, enums (as their ordinal),
+ * Cerealizable objects with an empty constructor, and arrays of bytes, ints, longs, floats and doubles.
+ * <p>
+ * The processor is {@code re.nectar.lib.cereal.processor.CerealProcessor}.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface Cereal {
+}
@@ -0,0 +1,84 @@
+package re.nectar.lib.cereal;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.function.Supplier;
+
+/**
+ * Creates the objects to uncerealize into, by calling the constructor without arguments of their class.
+ * <p>
+ * The factory of each class is built once, as a lambda bound to the constructor, so that creating an object costs the
+ * same as {@code new}. Exceptions thrown by the constructor are thrown as is.
+ */
+public final class CerealFactory {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final ClassValue<Supplier<?>> FACTORIES = new ClassValue<>() {
+        @Override
+        protected Supplier<?> computeValue(final Class<?> clazz) {
+            return build(clazz);
+        }
+    };
+
+    private CerealFactory() {
+    }
+
+    /**
+     * @return a threadsafe factory of new clazz objects.
+     * @throws IllegalArgumentException if clazz is abstract, or has no constructor without arguments.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Supplier<T> of(final Class<T> clazz) {
+        return (Supplier<T>) FACTORIES.get(clazz);
+    }
+
+    private static Supplier<?> build(final Class<?> clazz) {
+        if (clazz.isInterface() || clazz.isArray() || clazz.isPrimitive() || Modifier.isAbstract(clazz.getModifiers())) {
+            throw new IllegalArgumentException(clazz.getName() + " cannot be instantiated");
+        }
+        MethodHandles.Lookup lookup;
+        final MethodHandle constructor;
+        try {
+            try {
+                lookup = MethodHandles.privateLookupIn(clazz, LOOKUP);
+            } catch (IllegalAccessException e) {
+                // a package of a named module that isn't opened to us: its public constructors are still accessible.
+                lookup = null;
+            }
+            constructor = (lookup != null ? lookup : MethodHandles.publicLookup())
+                    .findConstructor(clazz, MethodType.methodType(void.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException(clazz.getName() + " has no accessible constructor without arguments", e);
+        }
+        if (lookup == null) {
+            return invoking(constructor);
+        }
+        try {
+            final CallSite callSite = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class), constructor, MethodType.methodType(clazz));
+            return (Supplier<?>) callSite.getTarget().invoke();
+        } catch (Throwable e) {
+            // the lambda can't always be defined next to the class, calling the method handle is almost as fast.
+            return invoking(constructor);
+        }
+    }
+
+    private static Supplier<?> invoking(final MethodHandle constructor) {
+        final MethodHandle handle = constructor.asType(MethodType.methodType(Object.class));
+        return () -> {
+            try {
+                return handle.invokeExact();
+            } catch (RuntimeException | Error constructorException) {
+                throw constructorException;
+            } catch (Throwable constructorException) {
+                throw new UndeclaredThrowableException(constructorException);
+            }
+        };
+    }
+}
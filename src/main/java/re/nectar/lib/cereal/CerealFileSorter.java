@@ -3,22 +3,40 @@ package re.nectar.lib.cereal;
 import re.nectar.lib.cereal.cerealizer.CerealizableCerealizer;
 import re.nectar.lib.cereal.cerealizer.Cerealizer;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
-import java.util.PriorityQueue;
+import java.util.SplittableRandom;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 
@@ -27,18 +45,42 @@ import java.util.function.Predicate;
  * <p>
  * Input files must be uniform in type (ie, created with a CerealOutputStream where every element has the same type).
  * <p>
- * This utility class works by loading small chunks of the input file in memory, sorting the chunks, then writing them to many small temporary files. Finally it reads the temporary files and repeatedly picks the lowest order element from the head of each input file.
+ * This utility class works by loading small chunks of the input file in memory, sorting the chunks, then writing them to many small temporary files. Finally it reads the temporary files and repeatedly picks the lowest order element from the head of each input file, with a tournament tree that takes about log2(number of files) comparisons per element. The sort is stable: elements that compare equal keep their order from the input file.
+ * <p>
+ * Objects are ordered either by a comparator, or by a {@link CerealKey} read straight from their cerealized bytes. The latter never uncerealizes objects (unless they must be filtered), and copies their cerealized bytes to the output untouched, which makes sorting a lot cheaper.
+ * <p>
+ * Chunks are sized by their cerealized size (blockSize), or by an estimate of the heap memory they take (heapBudget), see {@link HeapSizeEstimator}. {@link #setRunStatsListener(Consumer)} reports the size and timings of each chunk.
+ * <p>
+ * By default everything happens on the calling thread. With {@link #setParallelism(int)}, the calling thread only reads the chunks, while a pool of workers sorts them and writes the temporary files. The output is the same either way.
  *
  * @param <T>
  */
 public class CerealFileSorter<T extends Cerealizable> {
 
+    public static final int DEFAULT_MAX_FAN_IN = 256;
+    private static final int OBJECT_BUFFER_SIZE = 4; // 4 bytes for an int.
+    private static final int RUN_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RAW_BLOCK_SIZE = 1 << 30;
+    // how many objects to sample per shard, to pick the ranges of the shards.
+    private static final int SAMPLES_PER_SHARD = 256;
+    // an ArrayList slot, with some room for the list's growth.
+    private static final int LIST_ENTRY_SIZE = 8;
+
     private final Cerealizer<T> cerealizer;
     private final long blockSize;
     private final Path workspace;
     private final Comparator<T> comparator;
-    private int fileCounter;
+    private final CerealKey key;
+    // 0 when chunks are sized by blockSize only.
+    private final long heapBudget;
+    private final HeapSizeEstimator<T> estimator;
+    private Consumer<RunStats> runStatsListener;
+    private boolean compressRuns = false;
+    private BinaryOperator<T> reducer;
     private final Predicate<T> filter;
+    private int parallelism = 1;
+    private int maxFanIn = DEFAULT_MAX_FAN_IN;
+    private String checkpoint;
 
     /**
      * @param cerealizer The cerealizer for the type to read and write from the input/output files.
@@ -48,11 +90,7 @@ public class CerealFileSorter<T extends Cerealizable> {
      * @param filter     remove all objects that don't match this predicate
      */
     public CerealFileSorter(final Cerealizer<T> cerealizer, final long blockSize, final Path workspace, final Comparator<T> comparator, final Predicate<T> filter) {
-        this.cerealizer = cerealizer;
-        this.blockSize = blockSize;
-        this.workspace = workspace;
-        this.comparator = comparator;
-        this.filter = filter;
+        this(cerealizer, blockSize, workspace, comparator, null, filter);
     }
 
     /**
@@ -86,17 +124,210 @@ public class CerealFileSorter<T extends Cerealizable> {
         this(clazz, blockSize, workspace, comparator, t -> true);
     }
 
+    /**
+     * Sorts by a key read from the cerealized bytes of each object. Objects are never uncerealized (unless there is a filter to apply), and their cerealized bytes are copied to the temporary files and the output untouched.
+     * <p>
+     * Objects are kept in memory as their cerealized bytes, so a chunk takes about blockSize bytes, plus 12 bytes per object.
+     *
+     * @param cerealizer The cerealizer for the type to read and write from the input/output files. It's only used to apply the filter.
+     * @param blockSize  How much data to read into one chunk, at most 1GB. Precisely, it is the minimum number of cerealized bytes to read from the file.
+     * @param workspace  A preferrably empty directory in which to write temporary files
+     * @param key        determines the sorting order of the objects
+     * @param filter     remove all objects that don't match this predicate, or null to keep everything without uncerealizing anything.
+     */
+    public CerealFileSorter(final Cerealizer<T> cerealizer, final long blockSize, final Path workspace, final CerealKey key, final Predicate<T> filter) {
+        this(cerealizer, blockSize, workspace, null, key, filter);
+        if (blockSize > MAX_RAW_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize cannot be more than " + MAX_RAW_BLOCK_SIZE + " when sorting by key");
+        }
+    }
+
+    /**
+     * Sorts by a key read from the cerealized bytes of each object. Objects are never uncerealized, and their cerealized bytes are copied to the temporary files and the output untouched.
+     * <p>
+     * Objects are kept in memory as their cerealized bytes, so a chunk takes about blockSize bytes, plus 12 bytes per object.
+     *
+     * @param cerealizer The cerealizer for the type to read and write from the input/output files.
+     * @param blockSize  How much data to read into one chunk, at most 1GB. Precisely, it is the minimum number of cerealized bytes to read from the file.
+     * @param workspace  A preferrably empty directory in which to write temporary files
+     * @param key        determines the sorting order of the objects
+     */
+    public CerealFileSorter(final Cerealizer<T> cerealizer, final long blockSize, final Path workspace, final CerealKey key) {
+        this(cerealizer, blockSize, workspace, key, null);
+    }
+
+    /**
+     * Sorts by a key read from the cerealized bytes of each object. Objects are never uncerealized, and their cerealized bytes are copied to the temporary files and the output untouched.
+     * <p>
+     * Objects are kept in memory as their cerealized bytes, so a chunk takes about blockSize bytes, plus 12 bytes per object.
+     *
+     * @param clazz     the type to read and write from the input/output files.
+     * @param blockSize How much data to read into one chunk, at most 1GB. Precisely, it is the minimum number of cerealized bytes to read from the file.
+     * @param workspace A preferrably empty directory in which to write temporary files
+     * @param key       determines the sorting order of the objects
+     */
+    public CerealFileSorter(final Class<T> clazz, final long blockSize, final Path workspace, final CerealKey key) {
+        this(new CerealizableCerealizer<>(clazz), blockSize, workspace, key, null);
+    }
+
+    /**
+     * Sizes chunks by the heap memory they take once uncerealized, rather than by their cerealized size.
+     * <p>
+     * The budget is shared by all the chunks in memory at the same time, so each chunk gets heapBudget / (parallelism + 1). Leave some heap for the rest of the sort: the merge uses a 64KB buffer per temporary file it reads.
+     *
+     * @param cerealizer The cerealizer for the type to read and write from the input/output files.
+     * @param heapBudget How much heap memory the chunks can take, in bytes.
+     * @param estimator  Estimates the heap memory of each object, or null for {@link HeapSizeEstimator#sampling()}.
+     * @param workspace  A preferrably empty directory in which to write temporary files
+     * @param comparator determines the sorting order of the objects
+     * @param filter     remove all objects that don't match this predicate
+     */
+    public CerealFileSorter(final Cerealizer<T> cerealizer, final long heapBudget, final HeapSizeEstimator<T> estimator, final Path workspace, final Comparator<T> comparator, final Predicate<T> filter) {
+        this(cerealizer, Long.MAX_VALUE, workspace, comparator, null, filter, heapBudget, estimator != null ? estimator : HeapSizeEstimator.sampling());
+        if (heapBudget <= 0) {
+            throw new IllegalArgumentException("heapBudget must be positive");
+        }
+    }
+
+    /**
+     * Sizes chunks by the heap memory they take once uncerealized, rather than by their cerealized size.
+     * <p>
+     * The budget is shared by all the chunks in memory at the same time, so each chunk gets heapBudget / (parallelism + 1). Leave some heap for the rest of the sort: the merge uses a 64KB buffer per temporary file it reads.
+     *
+     * @param clazz      the type to read and write from the input/output files.
+     * @param heapBudget How much heap memory the chunks can take, in bytes.
+     * @param estimator  Estimates the heap memory of each object, or null for {@link HeapSizeEstimator#sampling()}.
+     * @param workspace  A preferrably empty directory in which to write temporary files
+     * @param comparator determines the sorting order of the objects
+     */
+    public CerealFileSorter(final Class<T> clazz, final long heapBudget, final HeapSizeEstimator<T> estimator, final Path workspace, final Comparator<T> comparator) {
+        this(new CerealizableCerealizer<>(clazz), heapBudget, estimator, workspace, comparator, t -> true);
+    }
+
+    private CerealFileSorter(final Cerealizer<T> cerealizer, final long blockSize, final Path workspace, final Comparator<T> comparator, final CerealKey key, final Predicate<T> filter) {
+        this(cerealizer, blockSize, workspace, comparator, key, filter, 0, null);
+    }
+
+    private CerealFileSorter(final Cerealizer<T> cerealizer, final long blockSize, final Path workspace, final Comparator<T> comparator, final CerealKey key, final Predicate<T> filter, final long heapBudget, final HeapSizeEstimator<T> estimator) {
+        this.cerealizer = cerealizer;
+        this.blockSize = blockSize;
+        this.workspace = workspace;
+        this.comparator = comparator;
+        this.key = key;
+        this.filter = filter;
+        this.heapBudget = heapBudget;
+        this.estimator = estimator;
+    }
+
+
+    /**
+     * Sort and write the chunks on this many worker threads, while the calling thread reads the next chunks. At most parallelism + 1 chunks are in memory at the same time, so the memory used grows with parallelism.
+     * <p>
+     * With a parallelism above 1, the comparator (or key), filter, reducer and cerealizer are called from several threads at the same time, and must be threadsafe.
+     *
+     * @param parallelism the number of worker threads, or 1 (the default) to do everything on the calling thread.
+     */
+    public void setParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Collapse the objects that compare equal (or that have the same {@link CerealKey}) into one: each group of equal objects is replaced by reducer.apply(reducer.apply(first, second), third)... in input order. For example, (a, b) -> b keeps the last object of each group.
+     * <p>
+     * Objects are reduced within each chunk before it's written to a temporary file, then again during the merge, which shrinks the temporary files too. The reducer must therefore be associative, and its result must compare equal to its arguments. When sorting by key, only the objects that are reduced are uncerealized.
+     *
+     * @param reducer the reducer, or null (the default) to keep every object.
+     */
+    public void setReducer(final BinaryOperator<T> reducer) {
+        this.reducer = reducer;
+    }
+
+    /**
+     * Compress the temporary files, in blocks of 64KB, with the fastest level of {@link java.util.zip.Deflater}. This trades CPU time for disk space and disk bandwidth: it pays off on slow disks, and with data that compresses well.
+     *
+     * @param compressRuns false by default.
+     */
+    public void setCompressRuns(final boolean compressRuns) {
+        this.compressRuns = compressRuns;
+    }
+
+    public boolean isCompressRuns() {
+        return compressRuns;
+    }
+
+    /**
+     * Receives the {@link RunStats} of each temporary file once it's written. With a parallelism above 1, the listener is called from the worker threads.
+     *
+     * @param runStatsListener the listener, or null for none.
+     */
+    public void setRunStatsListener(final Consumer<RunStats> runStatsListener) {
+        this.runStatsListener = runStatsListener;
+    }
+
+    /**
+     * What went into one temporary file, a sorted chunk of the input.
+     *
+     * @param run                the number of the chunk in the input, starting at 0.
+     * @param records            the number of objects in the chunk.
+     * @param cerealizedBytes    the number of bytes read from the input for the chunk.
+     * @param estimatedHeapBytes the heap memory taken by the chunk: estimated with the {@link HeapSizeEstimator} when there is a heap budget, the size of its arrays when sorting by key, and -1 otherwise.
+     * @param readNanos          the time spent reading and uncerealizing the chunk.
+     * @param sortNanos          the time spent sorting the chunk.
+     * @param writeNanos         the time spent cerealizing and writing the chunk to its temporary file.
+     */
+    public record RunStats(int run, long records, long cerealizedBytes, long estimatedHeapBytes, long readNanos, long sortNanos, long writeNanos) {
+    }
+
+    /**
+     * Merge at most this many temporary files at the same time. When there are more temporary files than that, they are merged in several passes, each pass dividing their number by maxFanIn.
+     * <p>
+     * Each temporary file being merged holds an open file and a 64KB read buffer. The fan-in is also lowered automatically if the process runs out of file descriptors.
+     *
+     * @param maxFanIn at least 2, {@link #DEFAULT_MAX_FAN_IN} by default.
+     */
+    public void setMaxFanIn(final int maxFanIn) {
+        if (maxFanIn < 2) {
+            throw new IllegalArgumentException("maxFanIn must be at least 2");
+        }
+        this.maxFanIn = maxFanIn;
+    }
+
+    public int getMaxFanIn() {
+        return maxFanIn;
+    }
+
+    /**
+     * Make the sorts of files resumable: progress is recorded in a manifest named checkpoint + ".manifest" in the workspace, and the temporary files are named after checkpoint instead of a random UUID. When a sort fails, its temporary files and manifest are kept, and sorting the same, unmodified input again with the same checkpoint resumes it: the sorted chunks are checked against the lengths and checksums recorded in the manifest, the input is read from the end of the last one, and a merge in several passes restarts from the last merged run.
+     * <p>
+     * Each temporary file is synced to disk before it's recorded, which makes the sort a bit slower. Sorts from a stream and {@link #topK} are not resumable, and ignore the checkpoint.
+     *
+     * @param checkpoint a name made of letters, digits, '.', '-' and '_', unique to the sort within the workspace, or null (the default) for a sort that starts over from scratch.
+     */
+    public void setCheckpoint(final String checkpoint) {
+        if (checkpoint != null && !checkpoint.matches("[A-Za-z0-9._-]+")) {
+            throw new IllegalArgumentException("a checkpoint name can only have letters, digits, '.', '-' and '_'");
+        }
+        this.checkpoint = checkpoint;
+    }
+
+    public String getCheckpoint() {
+        return checkpoint;
+    }
 
     /**
      * Sort objects from the input file and write them, in order, to output file.
      * <p>
-     * Input and output are allowed to be the same file, in which case the input file will be overwritten.
+     * Input and output are allowed to be the same file, in which case the input file will be overwritten: the output is written next to it, to a file named after the checkpoint or a random UUID, and only replaces the input once the merge is done, so that the input is left untouched until the sort can no longer fail.
      */
     public void sort(Path input, Path output) throws IOException, InstantiationException, IllegalAccessException {
-        try (FileInputStream fis = new FileInputStream(input.toFile());
-             FileOutputStream fos = new FileOutputStream(output.toFile())) {
-            sort(fis, fos);
-        }
+        sort(input, List.of(output));
     }
 
     /**
@@ -113,55 +344,770 @@ public class CerealFileSorter<T extends Cerealizable> {
      * Sort objects from the input stream and write them in order to the CerealOutputStream. This method closes the inputstream but NOT the outputstream.
      */
     public void sort(InputStream input, CerealOutputStream output) throws IOException, InstantiationException, IllegalAccessException {
-        List<File> tempFiles = new LinkedList<>();
-        String randomUUID = UUID.randomUUID().toString();
-        fileCounter = 0;
+        final SortJob job = new SortJob(1);
+        writeRuns(input, job);
+        mergeShards(List.of(output), job);
+    }
+
+    /**
+     * Sort objects from the input file into several output files, the shards, each one covering a range of the sort order: every object of the first shard comes before every object of the second shard, and so on. Concatenated, the shards are the same as the output of {@link #sort(Path, Path)}.
+     * <p>
+     * The ranges are picked from a random sample of the input, which takes an extra pass over the input file, without uncerealizing most objects. Each chunk is split by range into one temporary file per shard, and the shards are then merged independently, on parallelism threads.
+     * <p>
+     * As with {@link #sort(Path, Path)}, one of the shards may be the input file.
+     */
+    public void sort(final Path input, final List<Path> shards) throws IOException {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard is needed");
+        }
+        final SortJob job = new SortJob(shards.size());
+        if (shards.size() > 1) {
+            job.sampleSplitters(input);
+        }
+        if (checkpoint != null) {
+            job.openManifest(input);
+        }
+        if (job.manifest == null || !job.manifest.runsComplete()) {
+            final FileInputStream fis = new FileInputStream(input.toFile());
+            try {
+                fis.getChannel().position(job.inputOffset);
+            } catch (IOException e) {
+                fis.close();
+                throw e;
+            }
+            writeRuns(fis, job);
+            if (job.manifest != null) {
+                job.manifest.runsCompleted(job.runCount);
+            }
+        }
+        // a sort writes over its input only once the merge is done: truncating it before would leave the runs as the
+        // only copy of the data, which a failed sort deletes, and a resumed sort too when the input has changed.
+        final List<Path> targets = new ArrayList<>(shards.size());
+        for (Path shard : shards) {
+            if (Files.exists(shard) && Files.isSameFile(shard, input)) {
+                targets.add(shard.resolveSibling(shard.getFileName() + "." + job.filePrefix + ".sorting"));
+            } else {
+                targets.add(shard);
+            }
+        }
+        final List<CerealOutputStream> outputs = new ArrayList<>(shards.size());
+        try {
+            for (Path target : targets) {
+                outputs.add(new CerealOutputStream(new BufferedOutputStream(new FileOutputStream(target.toFile()), RUN_BUFFER_SIZE)));
+            }
+            mergeShards(outputs, job);
+        } catch (IOException | RuntimeException | Error e) {
+            job.cleanUpAfterFailure();
+            for (CerealOutputStream output : outputs) {
+                try {
+                    output.close();
+                } catch (IOException closeException) {
+                    e.addSuppressed(closeException);
+                }
+            }
+            for (int t = 0; t < shards.size(); t++) {
+                if (!targets.get(t).equals(shards.get(t))) {
+                    try {
+                        Files.deleteIfExists(targets.get(t));
+                    } catch (IOException deleteException) {
+                        e.addSuppressed(deleteException);
+                    }
+                }
+            }
+            throw e;
+        }
+        for (CerealOutputStream output : outputs) {
+            output.close();
+        }
+        for (int t = 0; t < shards.size(); t++) {
+            if (!targets.get(t).equals(shards.get(t))) {
+                Files.move(targets.get(t), shards.get(t), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    /**
+     * Merges files which are each sorted already, in the order of this sorter, into the output file, without sorting anything: as long as there are at most maxFanIn inputs, it's a single pass over them. Objects that compare equal come out in the order of the inputs, and are reduced if there is a reducer. The filter is not applied.
+     * <p>
+     * When there are more inputs than the fan-in, groups of consecutive inputs are first merged into temporary files of the workspace. The inputs are never modified, and the output must not be one of them.
+     */
+    public void merge(final List<Path> inputs, final Path output) throws IOException {
+        final SortJob job = new SortJob(1);
+        for (Path input : inputs) {
+            job.shardRuns.get(0).add(input.toFile());
+        }
+        try (CerealOutputStream cerealOutputStream = new CerealOutputStream(new BufferedOutputStream(new FileOutputStream(output.toFile()), RUN_BUFFER_SIZE))) {
+            mergeShards(List.of(cerealOutputStream), job);
+        }
+    }
 
-        // read from input into segments, sort segments, and write them to temp files.
+    /**
+     * Writes the first k objects of the input file, in order, to the output file: they are the same as the first k objects of the output of {@link #sort(Path, Path)}, but the rest of the input is never sorted.
+     * <p>
+     * The input is read chunk by chunk, and the first k objects seen so far are kept at the start of the next chunk. As long as they take at most half of a chunk (half of blockSize, or half of a chunk's share of the heap budget), nothing is written to the workspace. Beyond that, each chunk is sorted into a temporary file which only holds its first k objects, and the merge stops after k objects.
+     * <p>
+     * The filter and the reducer apply as with {@link #sort(Path, Path)}: k counts the objects that are written out.
+     */
+    public void topK(final Path input, final Path output, final long k) throws IOException {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        final SortJob job = new SortJob(1);
+        job.limit = k;
+        try (CerealInputStream cerealInputStream = new CerealInputStream(new FileInputStream(input.toFile()));
+             CerealOutputStream cerealOutputStream = new CerealOutputStream(new BufferedOutputStream(new FileOutputStream(output.toFile()), RUN_BUFFER_SIZE))) {
+            // the first k objects so far, sorted, reduced and cerealized.
+            byte[] top = new byte[0];
+            while (true) {
+                final Block block = readBlock(new CerealInputStream(new ByteArrayInputStream(top)), cerealInputStream);
+                if (block.cerealizedBytes == 0) {
+                    cerealOutputStream.write(top);
+                    return;
+                }
+                final long blockBytes = top.length + block.cerealizedBytes;
+                block.sort();
+                final ByteArrayOutputStream topBytes = new ByteArrayOutputStream();
+                try (CerealOutputStream topOutputStream = new CerealOutputStream(topBytes)) {
+                    block.write(new CerealOutputStream[]{topOutputStream}, job);
+                }
+                top = topBytes.toByteArray();
+                if (!topFitsInMemory(block, blockBytes, top.length)) {
+                    break;
+                }
+            }
+            // the top came first in the input, so it's the first run, which keeps the sort stable.
+            try (CerealOutputStream runOutputStream = openRunOutput(job.nextRunFiles()[0])) {
+                runOutputStream.write(top);
+            } catch (IOException | RuntimeException | Error e) {
+                deleteTempFiles(job.tempFiles);
+                throw e;
+            }
+            writeRemainingRuns(cerealInputStream, job);
+            mergeShards(List.of(cerealOutputStream), job);
+        }
+    }
+
+    /**
+     * @param blockBytes the cerealized size of the block the top was taken from.
+     * @return true if the top leaves at least half of the next chunk to the rest of the input.
+     */
+    private boolean topFitsInMemory(final Block block, final long blockBytes, final long topBytes) {
+        if (estimator != null) {
+            // assume the top takes as much heap per cerealized byte as the whole block.
+            return (double) block.estimatedHeapBytes / blockBytes * topBytes <= heapBudget / (parallelism + 1) / 2.0;
+        }
+        return topBytes <= blockSize / 2;
+    }
+
+    /**
+     * Reads the input into chunks, sorts them, and writes them to temp files. Closes the input.
+     */
+    private void writeRuns(final InputStream input, final SortJob job) throws IOException {
         try (CerealInputStream cerealInputStream = new CerealInputStream(input)) {
-            List<T> block;
+            writeRemainingRuns(cerealInputStream, job);
+        }
+    }
+
+    /**
+     * Writes the rest of the input to temp files, and deletes all the temp files if that fails, unless the sort can be resumed.
+     */
+    private void writeRemainingRuns(final CerealInputStream cerealInputStream, final SortJob job) throws IOException {
+        try {
+            if (parallelism == 1) {
+                writeRuns(cerealInputStream, job);
+            } else {
+                writeRunsInParallel(cerealInputStream, job);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            job.cleanUpAfterFailure();
+            throw e;
+        }
+    }
+
+    /**
+     * Merges the runs of each shard, in as many passes as the fan-in requires, into its output, and deletes the temp files (unless the merge fails and can be resumed).
+     */
+    private void mergeShards(final List<CerealOutputStream> outputs, final SortJob job) throws IOException {
+        try {
+            if (outputs.size() == 1 || parallelism == 1) {
+                for (int shard = 0; shard < outputs.size(); shard++) {
+                    new RunMerger(job, shard).mergeRuns(job.shardRuns.get(shard), outputs.get(shard));
+                }
+            } else {
+                mergeShardsInParallel(outputs, job);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            job.cleanUpAfterFailure();
+            throw e;
+        }
+        deleteTempFiles(job.tempFiles);
+        if (job.manifest != null) {
+            job.manifest.delete();
+        }
+    }
+
+    private void mergeShardsInParallel(final List<CerealOutputStream> outputs, final SortJob job) throws IOException {
+        final ExecutorService executor = newExecutor(Math.min(parallelism, outputs.size()), job);
+        final List<Future<Void>> merges = new ArrayList<>(outputs.size());
+        try {
+            for (int shard = 0; shard < outputs.size(); shard++) {
+                final RunMerger merger = new RunMerger(job, shard);
+                final List<File> runs = job.shardRuns.get(shard);
+                final CerealOutputStream output = outputs.get(shard);
+                merges.add(executor.submit(() -> {
+                    merger.mergeRuns(runs, output);
+                    return null;
+                }));
+            }
+            await(merges, true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a merge");
+        } finally {
+            shutdown(executor);
+        }
+    }
+
+    /**
+     * The state of one sort: its temporary files, how the output is split into shards, and its progress if it's checkpointed.
+     */
+    private final class SortJob {
+        private final String filePrefix = checkpoint != null ? checkpoint : UUID.randomUUID().toString();
+        private final AtomicInteger fileCounter = new AtomicInteger();
+        // every temporary file, to clean up at the end.
+        private final List<File> tempFiles = Collections.synchronizedList(new ArrayList<>());
+        // the runs of each shard, in the order of the chunks in the input.
+        private final List<List<File>> shardRuns = new ArrayList<>();
+        private int runCount = 0;
+        // how many objects to output, for a top K.
+        private long limit = Long.MAX_VALUE;
+        // null unless the sort is checkpointed.
+        private SortManifest manifest;
+        // where the input is read from, after the runs of a resumed sort.
+        private long inputOffset = 0;
+        // the first object (or key) of each shard but the first one.
+        private List<T> splitters = List.of();
+        private long[] keySplitters = new long[0];
+
+        private SortJob(final int shards) {
+            for (int t = 0; t < shards; t++) {
+                shardRuns.add(new ArrayList<>());
+            }
+        }
+
+        private File nextTempFile() {
+            File tempFile;
             do {
-                block = readBlock(cerealInputStream);
+                tempFile = workspace.resolve(SortManifest.tempFileName(filePrefix, fileCounter.getAndIncrement())).toFile();
+            } while (manifest != null && manifest.isRecorded(tempFile));
+            tempFiles.add(tempFile);
+            return tempFile;
+        }
 
-                if (!block.isEmpty()) {
-                    block.sort(comparator);
+        /**
+         * @return the files which are temp files of this job, as opposed to the inputs of a merge.
+         */
+        private List<File> tempFilesOf(final List<File> files) {
+            final List<File> ownFiles = new ArrayList<>(files.size());
+            for (File file : files) {
+                if (tempFiles.contains(file)) {
+                    ownFiles.add(file);
+                }
+            }
+            return ownFiles;
+        }
+
+        /**
+         * Deletes the temp files, except the ones recorded in the manifest, from which the sort can be resumed.
+         */
+        private void cleanUpAfterFailure() {
+            if (manifest == null) {
+                deleteTempFiles(tempFiles);
+                return;
+            }
+            final List<File> unrecorded = new ArrayList<>();
+            synchronized (tempFiles) {
+                for (File tempFile : tempFiles) {
+                    if (!manifest.isRecorded(tempFile)) {
+                        unrecorded.add(tempFile);
+                    }
+                }
+            }
+            deleteTempFiles(unrecorded);
+        }
+
+        /**
+         * Reads the manifest of the checkpoint, and picks up the runs it recorded.
+         */
+        private void openManifest(final Path input) throws IOException {
+            final String header = "CerealFileSorter 1 " + shardRuns.size() + " " + Files.size(input) + " "
+                    + Files.getLastModifiedTime(input).toMillis() + " " + input.toAbsolutePath();
+            manifest = SortManifest.open(workspace.resolve(checkpoint + ".manifest"), header, shardRuns.size(), filePrefix);
+            runCount = manifest.completedRuns();
+            inputOffset = manifest.inputOffset();
+            for (int shard = 0; shard < shardRuns.size(); shard++) {
+                shardRuns.get(shard).addAll(manifest.shardRuns().get(shard));
+                tempFiles.addAll(manifest.shardRuns().get(shard));
+            }
+        }
+
+        /**
+         * @return the temp files of the next chunk, one per shard.
+         */
+        private File[] nextRunFiles() {
+            final File[] runFiles = new File[shardRuns.size()];
+            for (int shard = 0; shard < runFiles.length; shard++) {
+                runFiles[shard] = nextTempFile();
+                shardRuns.get(shard).add(runFiles[shard]);
+            }
+            runCount++;
+            return runFiles;
+        }
 
-                    File tempFile = buildNextTempFile(randomUUID);
-                    tempFiles.add(tempFile);
+        /**
+         * @return the shard of object, which is shard or one after it.
+         */
+        private int shardOf(final T object, int shard) {
+            while (shard < splitters.size() && comparator.compare(object, splitters.get(shard)) >= 0) {
+                shard++;
+            }
+            return shard;
+        }
+
+        private int shardOf(final long objectKey, int shard) {
+            while (shard < keySplitters.length && objectKey >= keySplitters[shard]) {
+                shard++;
+            }
+            return shard;
+        }
 
-                    try (CerealOutputStream cerealOutputStream =
-                                 new CerealOutputStream(new FileOutputStream(tempFile))) {
-                        for (T cereal : block) {
-                            cerealOutputStream.write(cerealizer, cereal);
+        /**
+         * Picks the splitters from a uniform sample of the input (reservoir sampling). Only the sampled objects are uncerealized.
+         */
+        private void sampleSplitters(final Path input) throws IOException {
+            final int shards = shardRuns.size();
+            final int sampleSize = SAMPLES_PER_SHARD * shards;
+            final List<T> sample = new ArrayList<>();
+            final long[] keySample = new long[key != null ? sampleSize : 0];
+            byte[] bytes = new byte[256];
+            // a fixed seed, so that sorting the same file twice gives the same shards.
+            final SplittableRandom random = new SplittableRandom(0);
+            long seen = 0;
+            try (CerealInputStream cerealInputStream = new CerealInputStream(new FileInputStream(input.toFile()))) {
+                while (true) {
+                    final ByteArray object;
+                    try {
+                        object = cerealInputStream.nextObject();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    final long slot = seen < sampleSize ? seen : random.nextLong(seen + 1);
+                    seen++;
+                    if (slot >= sampleSize) {
+                        continue;
+                    }
+                    if (key != null) {
+                        if (bytes.length < object.length()) {
+                            bytes = new byte[Math.max(object.length(), bytes.length * 2)];
                         }
+                        object.copyTo(bytes, 0);
+                        keySample[(int) slot] = key.keyOf(bytes, 0, object.length());
+                    } else if (slot == sample.size()) {
+                        sample.add(cerealizer.uncerealizeFrom(object));
+                    } else {
+                        sample.set((int) slot, cerealizer.uncerealizeFrom(object));
                     }
                 }
-            } while (!block.isEmpty());
+            }
+            final int sampled = (int) Math.min(seen, sampleSize);
+            if (sampled == 0) {
+                return;
+            }
+            if (key != null) {
+                Arrays.sort(keySample, 0, sampled);
+                keySplitters = new long[shards - 1];
+                for (int t = 1; t < shards; t++) {
+                    keySplitters[t - 1] = keySample[(int) ((long) t * sampled / shards)];
+                }
+            } else {
+                sample.sort(comparator);
+                splitters = new ArrayList<>(shards - 1);
+                for (int t = 1; t < shards; t++) {
+                    splitters.add(sample.get((int) ((long) t * sampled / shards)));
+                }
+            }
         }
+    }
 
-        // read from all the tempfiles, and output the highest priority element to the outputfile;
-        List<CerealInputStream> tempCerealInputStreams = openTempFiles(tempFiles);
-        try {
-            final PriorityQueue<Pair<T, CerealInputStream>> queue =
-                    buildPriorityQueues(tempCerealInputStreams);
+    /**
+     * Merges the runs of one output. Each merge has its own fan-in, which it lowers if the process runs out of file descriptors.
+     */
+    private final class RunMerger {
+        private final SortJob job;
+        private final int shard;
+        private int fanIn = maxFanIn;
+
+        private RunMerger(final SortJob job, final int shard) {
+            this.job = job;
+            this.shard = shard;
+        }
 
+        /**
+         * Merges the runs into output. If there are more runs than the fan-in, consecutive groups of runs are first merged into
+         * longer runs, until there are few enough of them. If the process runs out of file descriptors while opening runs, the
+         * fan-in is lowered and the merge that failed is started again.
+         */
+        private void mergeRuns(List<File> runs, final CerealOutputStream output) throws IOException {
             while (true) {
-                final Pair<T, CerealInputStream> first = queue.poll();
-                if (first == null) {
-                    break;
+                if (runs.size() > fanIn) {
+                    runs = mergePass(runs);
+                    continue;
                 }
-                output.write(cerealizer, first.key());
+                try {
+                    mergeRunsInto(runs, output, job);
+                    return;
+                } catch (TooManyOpenFilesException e) {
+                    lowerFanIn(e);
+                }
+            }
+        }
 
-                final Optional<T> readOpt = first.value().read(cerealizer);
-                readOpt.ifPresent(t -> queue.add(new Pair<>(t, first.value())));
+        /**
+         * Merges each group of fanIn consecutive runs into a new run, and deletes the merged runs which are temp files.
+         *
+         * @return the new runs, in the same order.
+         */
+        private List<File> mergePass(final List<File> runs) throws IOException {
+            final List<File> mergedRuns = new ArrayList<>();
+            int start = 0;
+            while (start < runs.size()) {
+                final List<File> group = runs.subList(start, Math.min(start + fanIn, runs.size()));
+                if (group.size() == 1) {
+                    mergedRuns.add(group.get(0));
+                    start++;
+                    continue;
+                }
+                try {
+                    final File mergedRun = mergeGroup(group);
+                    if (job.manifest != null) {
+                        job.manifest.mergeCompleted(shard, mergedRuns.size(), group.size(), mergedRun);
+                    }
+                    deleteTempFiles(job.tempFilesOf(group));
+                    mergedRuns.add(mergedRun);
+                    start += group.size();
+                } catch (TooManyOpenFilesException e) {
+                    lowerFanIn(e);
+                }
             }
+            return mergedRuns;
+        }
+
+        private File mergeGroup(final List<File> group) throws IOException {
+            final List<CerealInputStream> groupStreams = openRuns(group, job);
+            try {
+                final File mergedRun = job.nextTempFile();
+                final CerealOutputStream runOutputStream;
+                try {
+                    runOutputStream = openRunOutput(mergedRun);
+                } catch (FileNotFoundException e) {
+                    // the runs were opened, so the workspace is there: only the message tells a missing permission apart.
+                    if (groupStreams.size() >= 2 && TooManyOpenFilesException.isCause(e)) {
+                        throw new TooManyOpenFilesException(groupStreams.size(), e);
+                    }
+                    throw e;
+                }
+                try (CerealOutputStream cos = runOutputStream) {
+                    merge(groupStreams, cos, job.limit);
+                }
+                return mergedRun;
+            } finally {
+                closeTempFiles(groupStreams);
+            }
+        }
+
+        private void lowerFanIn(final TooManyOpenFilesException e) throws TooManyOpenFilesException {
+            // leave some file descriptors to the rest of the process.
+            final int lowerFanIn = Math.max(2, e.opened / 2);
+            if (lowerFanIn >= fanIn) {
+                throw e;
+            }
+            fanIn = lowerFanIn;
+        }
+    }
+
+    private void mergeRunsInto(final List<File> runs, final CerealOutputStream output, final SortJob job) throws IOException {
+        final List<CerealInputStream> runStreams = openRuns(runs, job);
+        try {
+            merge(runStreams, output, job.limit);
         } finally {
-            closeTempFiles(tempCerealInputStreams);
-            deleteTempFiles(tempFiles);
+            closeTempFiles(runStreams);
+        }
+    }
+
+    /**
+     * Merges the runs into output, stopping after limit objects.
+     */
+    private void merge(final List<CerealInputStream> runStreams, final CerealOutputStream output, final long limit) throws IOException {
+        if (key != null) {
+            mergeRaw(runStreams, output, limit);
+            return;
         }
+        final List<LoserTree.Source<T>> sources = new ArrayList<>(runStreams.size());
+        for (CerealInputStream cis : runStreams) {
+            sources.add(() -> cis.read(cerealizer).orElse(null));
+        }
+        final LoserTree<T> tree = new LoserTree<>(sources, comparator);
+        final ReducingWriter writer = new ReducingWriter(output, limit);
+        while (tree.hasNext() && !writer.isFull()) {
+            writer.write(tree.next());
+        }
+        writer.flush();
     }
 
-    private record Pair<K, V>(K key, V value) {};
+    private void mergeRaw(final List<CerealInputStream> runStreams, final CerealOutputStream output, final long limit) throws IOException {
+        final List<RawFrame> sources = new ArrayList<>(runStreams.size());
+        for (CerealInputStream cis : runStreams) {
+            sources.add(new RawFrame(cis));
+        }
+        final LoserTree<RawFrame> tree = new LoserTree<>(sources, Comparator.comparingLong(frame -> frame.frameKey));
+        final RawReducingWriter writer = new RawReducingWriter(output, limit);
+        while (tree.hasNext() && !writer.isFull()) {
+            // the frame is overwritten by next(), write it out first.
+            final RawFrame frame = tree.peek();
+            writer.write(frame.bytes, 0, frame.length, frame.frameKey);
+            tree.next();
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes objects in order, reducing consecutive objects that compare equal if there is a reducer.
+     */
+    private final class ReducingWriter {
+        private final CerealOutputStream output;
+        private final long limit;
+        private long written = 0;
+        private T pending;
+
+        private ReducingWriter(final CerealOutputStream output, final long limit) {
+            this.output = output;
+            this.limit = limit;
+        }
+
+        /**
+         * @return true once limit objects were written, after which everything else is dropped.
+         */
+        private boolean isFull() {
+            return written >= limit;
+        }
+
+        private void write(final T object) throws IOException {
+            if (reducer == null) {
+                emit(object);
+            } else if (pending != null && comparator.compare(pending, object) == 0) {
+                pending = reducer.apply(pending, object);
+            } else {
+                flush();
+                pending = object;
+            }
+        }
+
+        private void flush() throws IOException {
+            if (pending != null) {
+                emit(pending);
+                pending = null;
+            }
+        }
+
+        private void emit(final T object) throws IOException {
+            if (!isFull()) {
+                output.write(cerealizer, object);
+                written++;
+            }
+        }
+    }
+
+    /**
+     * Writes cerealized objects in order, reducing consecutive objects that have the same key if there is a reducer.
+     * Only the objects that are actually reduced are uncerealized, the others are copied untouched.
+     */
+    private final class RawReducingWriter {
+        private final CerealOutputStream output;
+        private final long limit;
+        private long written = 0;
+        private final ByteArray view = new ByteArray();
+        private byte[] pendingBytes = new byte[256];
+        private int pendingLength;
+        private long pendingKey;
+        private boolean hasPending = false;
+        // the reduction of the pending objects, once there is more than one.
+        private T pendingObject;
+
+        private RawReducingWriter(final CerealOutputStream output, final long limit) {
+            this.output = output;
+            this.limit = limit;
+        }
+
+        /**
+         * @return true once limit objects were written, after which everything else is dropped.
+         */
+        private boolean isFull() {
+            return written >= limit;
+        }
+
+        private void write(final byte[] bytes, final int offset, final int length, final long objectKey) throws IOException {
+            if (reducer == null) {
+                if (!isFull()) {
+                    view.reset(bytes, offset, length);
+                    output.writeRawObject(view);
+                    written++;
+                }
+            } else if (hasPending && pendingKey == objectKey) {
+                if (pendingObject == null) {
+                    view.reset(pendingBytes, 0, pendingLength);
+                    pendingObject = cerealizer.uncerealizeFrom(view);
+                }
+                view.reset(bytes, offset, length);
+                pendingObject = reducer.apply(pendingObject, cerealizer.uncerealizeFrom(view));
+            } else {
+                flush();
+                if (pendingBytes.length < length) {
+                    pendingBytes = new byte[Math.max(length, pendingBytes.length * 2)];
+                }
+                System.arraycopy(bytes, offset, pendingBytes, 0, length);
+                pendingLength = length;
+                pendingKey = objectKey;
+                hasPending = true;
+            }
+        }
+
+        private void flush() throws IOException {
+            if (!hasPending) {
+                return;
+            }
+            if (isFull()) {
+                // dropped.
+            } else if (pendingObject != null) {
+                output.write(cerealizer, pendingObject);
+                written++;
+            } else {
+                view.reset(pendingBytes, 0, pendingLength);
+                output.writeRawObject(view);
+                written++;
+            }
+            hasPending = false;
+            pendingObject = null;
+        }
+    }
+
+    /**
+     * Thrown when a run can't be opened after at least two others were, most likely because the process ran out of file
+     * descriptors.
+     */
+    private static class TooManyOpenFilesException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final int opened;
+
+        TooManyOpenFilesException(final int opened, final IOException cause) {
+            super("could only open " + opened + " runs at the same time", cause);
+            this.opened = opened;
+        }
+
+        /**
+         * @return true if e is how the JDK reports that the process is out of file descriptors (EMFILE or ENFILE).
+         */
+        static boolean isCause(final FileNotFoundException e) {
+            return e.getMessage() != null && e.getMessage().contains("Too many open files");
+        }
+    }
+
+    private void writeRuns(final CerealInputStream cerealInputStream, final SortJob job) throws IOException {
+        Block block;
+        while (!(block = readBlock(cerealInputStream)).isEmpty()) {
+            final int run = job.runCount;
+            block.sortAndWrite(job.nextRunFiles(), run, job.inputOffset + cerealInputStream.position(), job);
+        }
+    }
+
+    /**
+     * Reads blocks on the calling thread, and hands them over to parallelism workers which sort them and write them to temp files.
+     * The temp files are named and listed in the order of the blocks in the input, so the merge sees exactly the same runs as with {@link #writeRuns}.
+     */
+    private void writeRunsInParallel(final CerealInputStream cerealInputStream, final SortJob job) throws IOException {
+        final ExecutorService executor = newExecutor(parallelism, job);
+        // one permit per block being sorted or written, the block being read doesn't need one.
+        final Semaphore inFlight = new Semaphore(parallelism);
+        final List<Future<Void>> runs = new LinkedList<>();
+        try {
+            Block block;
+            while (!(block = readBlock(cerealInputStream)).isEmpty()) {
+                final Block runBlock = block;
+                final int run = job.runCount;
+                final File[] runFiles = job.nextRunFiles();
+                final long inputEnd = job.inputOffset + cerealInputStream.position();
+                inFlight.acquire();
+                runs.add(executor.submit(() -> {
+                    try {
+                        runBlock.sortAndWrite(runFiles, run, inputEnd, job);
+                        return null;
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+                await(runs, false);
+            }
+            await(runs, true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a sort worker");
+        } finally {
+            shutdown(executor);
+        }
+    }
+
+    private ExecutorService newExecutor(final int threads, final SortJob job) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "CerealFileSorter-" + job.filePrefix);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static void shutdown(final ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            // don't let a worker write a temp file after it has been cleaned up.
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the completion of the given tasks (or only checks the ones that are already completed if all is false), and rethrows their failures.
+     */
+    private static void await(final List<Future<Void>> tasks, final boolean all) throws IOException, InterruptedException {
+        final Iterator<Future<Void>> iterator = tasks.iterator();
+        while (iterator.hasNext()) {
+            final Future<Void> task = iterator.next();
+            if (all || task.isDone()) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof IOException ioException) {
+                        throw ioException;
+                    } else if (cause instanceof RuntimeException runtimeException) {
+                        throw runtimeException;
+                    } else if (cause instanceof Error error) {
+                        throw error;
+                    }
+                    throw new IOException(cause);
+                }
+                iterator.remove();
+            }
+        }
+    }
 
     private void deleteTempFiles(final List<File> tempFiles) {
         for (File file : tempFiles) {
@@ -183,41 +1129,357 @@ public class CerealFileSorter<T extends Cerealizable> {
         }
     }
 
-    private List<CerealInputStream> openTempFiles(final List<File> tempFiles) throws FileNotFoundException {
-        List<CerealInputStream> inputStreams = new LinkedList<>();
-        for (File tempFile : tempFiles) {
-            inputStreams.add(new CerealInputStream(new FileInputStream(tempFile)));
+    /**
+     * Opens runs to merge, which are temp files of the job, compressed if compressRuns is set, or the plain input files of {@link #merge}.
+     */
+    private List<CerealInputStream> openRuns(final List<File> runs, final SortJob job) throws IOException {
+        List<CerealInputStream> inputStreams = new ArrayList<>(runs.size());
+        try {
+            for (File run : runs) {
+                final InputStream runInputStream = new FileInputStream(run);
+                final boolean compressed = compressRuns && job.tempFiles.contains(run);
+                inputStreams.add(new CerealInputStream(compressed ? new DeflatedBlockInputStream(runInputStream) : runInputStream, RUN_BUFFER_SIZE));
+            }
+        } catch (FileNotFoundException e) {
+            closeTempFiles(inputStreams);
+            if (inputStreams.size() >= 2 && runs.get(inputStreams.size()).exists()) {
+                throw new TooManyOpenFilesException(inputStreams.size(), e);
+            }
+            throw e;
         }
         return inputStreams;
     }
 
-    private PriorityQueue<Pair<T, CerealInputStream>> buildPriorityQueues(final List<CerealInputStream> tempFiles) throws IllegalAccessException, IOException, InstantiationException {
-        PriorityQueue<Pair<T, CerealInputStream>> queue = new PriorityQueue<>(
-                (o1, o2) -> comparator.compare(o1.key(), o2.key()));
-        for (CerealInputStream cerealInputStream : tempFiles) {
-            final Optional<T> read = cerealInputStream.read(cerealizer);
-            read.ifPresent(t -> queue.add(new Pair<>(t, cerealInputStream)));
+    private CerealOutputStream openRunOutput(final File run) throws FileNotFoundException {
+        final FileOutputStream runOutputStream = new FileOutputStream(run);
+        if (compressRuns) {
+            return new CerealOutputStream(new DeflatedBlockOutputStream(runOutputStream, RUN_BUFFER_SIZE));
         }
-        return queue;
+        return new CerealOutputStream(new BufferedOutputStream(runOutputStream, RUN_BUFFER_SIZE));
+    }
+
+    private Block readBlock(final CerealInputStream cerealInputStream) throws IOException {
+        return readBlock(null, cerealInputStream);
     }
 
-    private File buildNextTempFile(final String rand) {
-        return workspace.resolve(rand + "_tmp_" + String.valueOf(fileCounter++) + (".cereal")).toFile();
+    /**
+     * @param carry objects to put at the start of the block, which were already filtered and count towards the size of the block, or null.
+     */
+    private Block readBlock(final CerealInputStream carry, final CerealInputStream cerealInputStream) throws IOException {
+        final long start = System.nanoTime();
+        final long startPosition = cerealInputStream.position();
+        final Block block = key == null ? readObjectBlock(carry, cerealInputStream) : readRawBlock(carry, cerealInputStream);
+        block.cerealizedBytes = cerealInputStream.position() - startPosition;
+        block.readNanos = System.nanoTime() - start;
+        return block;
     }
 
-    private List<T> readBlock(final CerealInputStream cerealInputStream) throws IllegalAccessException, IOException, InstantiationException {
+    private ObjectBlock readObjectBlock(final CerealInputStream carry, final CerealInputStream cerealInputStream) throws IOException {
         List<T> block = new ArrayList<>();
         Optional<T> readOpt;
-        long startPosition = cerealInputStream.position();
         long readSize = 0;
+        long heapSize = 0;
+        // the block's list holds a reference to each object.
+        final long blockHeapBudget = heapBudget / (parallelism + 1);
+        if (carry != null) {
+            long objectPosition = carry.position();
+            while ((readOpt = carry.read(cerealizer)).isPresent()) {
+                block.add(readOpt.get());
+                if (estimator != null) {
+                    heapSize += estimator.estimate(readOpt.get(), (int) (carry.position() - objectPosition - OBJECT_BUFFER_SIZE)) + LIST_ENTRY_SIZE;
+                }
+                objectPosition = carry.position();
+            }
+            readSize = carry.position();
+        }
+        long startPosition = cerealInputStream.position() - readSize;
         do {
+            final long objectPosition = cerealInputStream.position();
             readOpt = cerealInputStream.read(cerealizer);
             if (readOpt.isPresent() && filter.test(readOpt.get())) {
                 block.add(readOpt.get());
                 readSize = cerealInputStream.position() - startPosition;
+                if (estimator != null) {
+                    final int cerealizedSize = (int) (cerealInputStream.position() - objectPosition - OBJECT_BUFFER_SIZE);
+                    heapSize += estimator.estimate(readOpt.get(), cerealizedSize) + LIST_ENTRY_SIZE;
+                }
             }
-        } while (readOpt.isPresent() && readSize < blockSize);
+        } while (readOpt.isPresent() && readSize < blockSize && (estimator == null || heapSize < blockHeapBudget));
+        return new ObjectBlock(block, estimator != null ? heapSize : -1);
+    }
+
+    private RawBlock readRawBlock(final CerealInputStream carry, final CerealInputStream cerealInputStream) throws IOException {
+        final RawBlock block = new RawBlock();
+        long readSize = 0;
+        if (carry != null) {
+            while (true) {
+                try {
+                    block.add(carry.nextObject());
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+            readSize = carry.position();
+        }
+        long startPosition = cerealInputStream.position() - readSize;
+        while (readSize < blockSize) {
+            final ByteArray object;
+            try {
+                object = cerealInputStream.nextObject();
+            } catch (EOFException e) {
+                break;
+            }
+            block.add(object);
+            if (filter == null || filter.test(cerealizer.uncerealizeFrom(object))) {
+                readSize = cerealInputStream.position() - startPosition;
+            } else {
+                block.removeLast();
+            }
+        }
+        block.estimatedHeapBytes = block.data.length + (long) block.keys.length * (Long.BYTES + Integer.BYTES);
         return block;
     }
 
+    /**
+     * A chunk of the input file, in memory.
+     */
+    private abstract class Block {
+        private long cerealizedBytes;
+        protected long estimatedHeapBytes;
+        private long readNanos;
+
+        abstract boolean isEmpty();
+
+        abstract long records();
+
+        abstract void sort();
+
+        /**
+         * Writes the sorted chunk, split by shard.
+         */
+        abstract void write(CerealOutputStream[] outputs, SortJob job) throws IOException;
+
+        /**
+         * Sorts this chunk, writes it to its temp files (one per shard), records it in the manifest if there's one, and reports it to the run stats listener.
+         *
+         * @param inputEnd the position of the end of the chunk in the input.
+         */
+        void sortAndWrite(final File[] runFiles, final int run, final long inputEnd, final SortJob job) throws IOException {
+            final long start = System.nanoTime();
+            sort();
+            final long sorted = System.nanoTime();
+            final CerealOutputStream[] outputs = new CerealOutputStream[runFiles.length];
+            try {
+                for (int shard = 0; shard < runFiles.length; shard++) {
+                    outputs[shard] = openRunOutput(runFiles[shard]);
+                }
+                write(outputs, job);
+            } finally {
+                for (CerealOutputStream output : outputs) {
+                    if (output != null) {
+                        output.close();
+                    }
+                }
+            }
+            if (job.manifest != null) {
+                job.manifest.runCompleted(run, inputEnd, records(), runFiles);
+            }
+            final Consumer<RunStats> listener = runStatsListener;
+            if (listener != null) {
+                listener.accept(new RunStats(run, records(), cerealizedBytes, estimatedHeapBytes, readNanos, sorted - start, System.nanoTime() - sorted));
+            }
+        }
+    }
+
+    private final class ObjectBlock extends Block {
+        private final List<T> objects;
+
+        private ObjectBlock(final List<T> objects, final long estimatedHeapBytes) {
+            this.objects = objects;
+            this.estimatedHeapBytes = estimatedHeapBytes;
+        }
+
+        @Override
+        boolean isEmpty() {
+            return objects.isEmpty();
+        }
+
+        @Override
+        long records() {
+            return objects.size();
+        }
+
+        @Override
+        void sort() {
+            objects.sort(comparator);
+        }
+
+        @Override
+        void write(final CerealOutputStream[] outputs, final SortJob job) throws IOException {
+            int shard = 0;
+            ReducingWriter writer = new ReducingWriter(outputs[shard], job.limit);
+            for (T cereal : objects) {
+                if (writer.isFull()) {
+                    break;
+                }
+                final int objectShard = job.shardOf(cereal, shard);
+                if (objectShard != shard) {
+                    writer.flush();
+                    shard = objectShard;
+                    writer = new ReducingWriter(outputs[shard], job.limit);
+                }
+                writer.write(cereal);
+            }
+            writer.flush();
+        }
+    }
+
+    /**
+     * The cerealized objects of a chunk, each one prefixed by its length, one after the other in a single array, with the key and offset of each object on the side.
+     */
+    private final class RawBlock extends Block {
+        private byte[] data = new byte[(int) Math.min(blockSize, RUN_BUFFER_SIZE)];
+        private int used = 0;
+        private long[] keys = new long[64];
+        private int[] offsets = new int[64];
+        private int count = 0;
+        private int[] order;
+
+        private void add(final ByteArray object) {
+            final int length = object.length();
+            final long needed = (long) used + OBJECT_BUFFER_SIZE + length;
+            if (needed > data.length) {
+                if (needed > Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("a chunk cannot hold more than 2GB");
+                }
+                data = Arrays.copyOf(data, (int) Math.min(Math.max(needed, data.length * 2L), Integer.MAX_VALUE - 8));
+            }
+            if (count == offsets.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            ByteArray.intToBytes(length, data, used);
+            object.copyTo(data, used + OBJECT_BUFFER_SIZE);
+            keys[count] = key.keyOf(data, used + OBJECT_BUFFER_SIZE, length);
+            offsets[count] = used;
+            count++;
+            used += OBJECT_BUFFER_SIZE + length;
+        }
+
+        private void removeLast() {
+            count--;
+            used = offsets[count];
+        }
+
+        @Override
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        @Override
+        long records() {
+            return count;
+        }
+
+        @Override
+        void sort() {
+            order = sortByKey(keys, count);
+        }
+
+        @Override
+        void write(final CerealOutputStream[] outputs, final SortJob job) throws IOException {
+            int shard = 0;
+            RawReducingWriter writer = new RawReducingWriter(outputs[shard], job.limit);
+            for (int t = 0; t < count && !writer.isFull(); t++) {
+                final long objectKey = keys[order[t]];
+                final int objectShard = job.shardOf(objectKey, shard);
+                if (objectShard != shard) {
+                    writer.flush();
+                    shard = objectShard;
+                    writer = new RawReducingWriter(outputs[shard], job.limit);
+                }
+                final int offset = offsets[order[t]];
+                writer.write(data, offset + OBJECT_BUFFER_SIZE, ByteArray.bytesToInt(data, offset), objectKey);
+            }
+            writer.flush();
+        }
+    }
+
+    /**
+     * A stable sort of the first count keys.
+     *
+     * @return the indices of the keys, in sorted order.
+     */
+    private static int[] sortByKey(final long[] keys, final int count) {
+        int[] order = new int[count];
+        for (int t = 0; t < count; t++) {
+            order[t] = t;
+        }
+        // insertion sort of small slices, then bottom up merge sort.
+        final int slice = 32;
+        for (int lo = 0; lo < count; lo += slice) {
+            final int hi = Math.min(lo + slice, count);
+            for (int t = lo + 1; t < hi; t++) {
+                final int idx = order[t];
+                int u = t;
+                while (u > lo && keys[order[u - 1]] > keys[idx]) {
+                    order[u] = order[u - 1];
+                    u--;
+                }
+                order[u] = idx;
+            }
+        }
+        int[] merged = new int[count];
+        for (int width = slice; width < count; width *= 2) {
+            for (int lo = 0; lo < count; lo += 2 * width) {
+                final int mid = Math.min(lo + width, count);
+                final int hi = Math.min(lo + 2 * width, count);
+                int left = lo;
+                int right = mid;
+                for (int t = lo; t < hi; t++) {
+                    if (right >= hi || (left < mid && keys[order[left]] <= keys[order[right]])) {
+                        merged[t] = order[left++];
+                    } else {
+                        merged[t] = order[right++];
+                    }
+                }
+            }
+            final int[] swap = order;
+            order = merged;
+            merged = swap;
+        }
+        return order;
+    }
+
+    /**
+     * The current object of a run, as its cerealized bytes and its key. Its bytes are overwritten by each call to next(), so it must be written to the output before moving to the next object.
+     */
+    private final class RawFrame implements LoserTree.Source<RawFrame> {
+        private final CerealInputStream cerealInputStream;
+        private byte[] bytes = new byte[256];
+        private int length;
+        private long frameKey;
+
+        private RawFrame(final CerealInputStream cerealInputStream) {
+            this.cerealInputStream = cerealInputStream;
+        }
+
+        @Override
+        public RawFrame next() throws IOException {
+            final ByteArray object;
+            try {
+                object = cerealInputStream.nextObject();
+            } catch (EOFException e) {
+                return null;
+            }
+            length = object.length();
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            object.copyTo(bytes, 0);
+            frameKey = key.keyOf(bytes, 0, length);
+            return this;
+        }
+    }
+
 }
@@ -0,0 +1,153 @@
+package re.nectar.lib.cereal;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A sparse index of the objects in a Cereal file, which allows jumping to the Nth object of a file even when objects
+ * don't all have the same cerealized size.
+ * <p>
+ * The index holds the byte offset of every interval-th object (objects 0, interval, 2*interval...). Reaching object N
+ * takes a single seek to the offset of object N - (N % interval), followed by skipping at most interval-1 objects.
+ * <p>
+ * Indexes are built by a {@link CerealOutputStream} created with an index output stream, and are usually stored as a
+ * sidecar file next to the data file (see {@link #sidecarOf(Path)}). The offsets are stored as variable length deltas,
+ * so an index typically takes one or two bytes per indexed object.
+ */
+public class CerealIndex implements Cerealizable {
+
+    private static final String SIDECAR_SUFFIX = ".idx";
+
+    private int interval;
+    private long count = 0;
+    private long[] offsets = new long[16];
+    private int offsetCount = 0;
+
+    /**
+     * Only for uncerealization.
+     */
+    public CerealIndex() {
+    }
+
+    /**
+     * @param interval index the offset of one object every interval objects.
+     */
+    public CerealIndex(final int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be at least 1");
+        }
+        this.interval = interval;
+    }
+
+    /**
+     * @return the conventional path of the index sidecar file of a data file: the same path, with ".idx" appended.
+     */
+    public static Path sidecarOf(final Path dataFile) {
+        return dataFile.resolveSibling(dataFile.getFileName() + SIDECAR_SUFFIX);
+    }
+
+    /**
+     * Reads an index file.
+     */
+    public static CerealIndex read(final Path indexFile) throws IOException {
+        return ByteArray.wrap(Files.readAllBytes(indexFile)).uncerealize(CerealIndex.class);
+    }
+
+    /**
+     * Records that the next object of the data file starts at the given byte offset.
+     */
+    void add(final long offset) {
+        if (count % interval == 0) {
+            if (offsetCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsetCount * 2);
+            }
+            offsets[offsetCount++] = offset;
+        }
+        count++;
+    }
+
+    public int interval() {
+        return interval;
+    }
+
+    /**
+     * @return the number of objects in the data file.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return the byte offset in the data file of the closest indexed object at or before the given object.
+     */
+    public long indexedOffset(final long objectNumber) {
+        checkObjectNumber(objectNumber);
+        return offsets[(int) (objectNumber / interval)];
+    }
+
+    /**
+     * @return how many objects must be skipped after the {@link #indexedOffset(long)} to reach the given object.
+     */
+    public int objectsToSkip(final long objectNumber) {
+        checkObjectNumber(objectNumber);
+        return (int) (objectNumber % interval);
+    }
+
+    /**
+     * Opens the data file, positioned at the given object.
+     *
+     * @return a CerealInputStream whose next read returns the object number objectNumber.
+     */
+    public CerealInputStream openAt(final Path dataFile, final long objectNumber) throws IOException {
+        final FileInputStream fis = new FileInputStream(dataFile.toFile());
+        try {
+            fis.getChannel().position(indexedOffset(objectNumber));
+            final CerealInputStream cis = new CerealInputStream(fis);
+            for (int t = objectsToSkip(objectNumber); t > 0; t--) {
+                cis.skipRawObject();
+            }
+            return cis;
+        } catch (final IOException | RuntimeException e) {
+            fis.close();
+            throw e;
+        }
+    }
+
+    private void checkObjectNumber(final long objectNumber) {
+        if (objectNumber < 0 || objectNumber >= count) {
+            throw new IndexOutOfBoundsException("object " + objectNumber + " is outside of a file of " + count + " objects");
+        }
+    }
+
+    @Override
+    public void cerealizeTo(final ByteArray ba) {
+        ba.add(interval);
+        ba.add(count);
+        ba.add(offsetCount);
+        long previous = 0;
+        for (int t = 0; t < offsetCount; t++) {
+            ba.addVarLong(offsets[t] - previous);
+            previous = offsets[t];
+        }
+    }
+
+    @Override
+    public void uncerealizeFrom(final ByteArray ba) {
+        interval = ba.getInt();
+        count = ba.getLong();
+        offsetCount = ba.getInt();
+        // each offset takes at least a byte, so that a corrupted count can't allocate more than the index holds.
+        if (offsetCount < 0 || offsetCount > ba.length()) {
+            throw new IllegalStateException("Malformed index, " + offsetCount + " offsets in " + ba.length() + " bytes");
+        }
+        offsets = new long[Math.max(offsetCount, 1)];
+        long previous = 0;
+        for (int t = 0; t < offsetCount; t++) {
+            previous += ba.getVarLong();
+            offsets[t] = previous;
+        }
+    }
+}
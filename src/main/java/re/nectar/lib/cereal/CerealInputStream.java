@@ -1,36 +1,84 @@
 package re.nectar.lib.cereal;
 
 import re.nectar.lib.cereal.cerealizer.Cerealizer;
+import re.nectar.lib.cereal.cerealizer.DictionaryStringCerealizer;
 
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.Optional;
+import java.util.function.Supplier;
 
+/**
+ * Reads a stream of cerealized objects, as written by a {@link CerealOutputStream}.
+ * <p>
+ * This class does its own buffering, so there's no need to wrap the underlying stream in a BufferedInputStream.
+ * Objects that fit in the buffer are uncerealized directly from it, without being copied. Larger objects are copied
+ * into an array of their own.
+ * <p>
+ * This class is NOT threadsafe.
+ */
 public class CerealInputStream extends InputStream {
 
     private static final int OBJECT_BUFFER_SIZE = 4; // 4 bytes for an int.
-    private final DataInputStream inputStream;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private final InputStream inputStream;
+    private final byte[] buffer;
+    private int bufferPos = 0;
+    private int bufferLimit = 0;
+    // reused to uncerealize objects straight from the buffer.
+    private ByteArray bufferView = new ByteArray();
     private long position = 0;
+    private DictionaryStringCerealizer stringDictionary = null;
 
     public CerealInputStream(final InputStream inputStream) {
-        this.inputStream = new DataInputStream(inputStream);
+        this(inputStream, DEFAULT_BUFFER_SIZE);
     }
 
+    /**
+     * @param bufferSize the size of the read buffer. Objects larger than this are still read, but are copied once.
+     */
+    public CerealInputStream(final InputStream inputStream, final int bufferSize) {
+        if (bufferSize < OBJECT_BUFFER_SIZE) {
+            throw new IllegalArgumentException("bufferSize cannot be less than " + OBJECT_BUFFER_SIZE);
+        }
+        this.inputStream = inputStream;
+        this.buffer = new byte[bufferSize];
+    }
 
     public CerealInputStream(final DataInputStream inputStream) {
-        // we're creating a DataInputStream anyway, so if we receive one, no
-        // need to rewrap it.
-        this.inputStream = inputStream;
+        this((InputStream) inputStream);
+    }
+
+    /**
+     * Reads a stream written in dictionary mode, see {@link CerealOutputStream#setStringDictionary}. Objects must then
+     * be uncerealized in order, from the first one: they can't be skipped or read raw.
+     *
+     * @param stringDictionary a new dictionary, which mustn't be used anywhere else, or null to read Strings in full.
+     */
+    public void setStringDictionary(final DictionaryStringCerealizer stringDictionary) {
+        this.stringDictionary = stringDictionary;
+        final Charset charset = bufferView.charset();
+        this.bufferView = stringDictionary != null ? new DictionaryByteArray(stringDictionary) : new ByteArray();
+        bufferView.setCharset(charset);
+    }
+
+    /**
+     * Sets the charset the objects read their Strings in, which is UTF-8 by default, see
+     * {@link ByteArray#setCharset(Charset)}.
+     */
+    public void setCharset(final Charset charset) {
+        bufferView.setCharset(charset);
     }
 
     public <T> Optional<T> read(final Class<T> cerealClass)
             throws InstantiationException, IllegalAccessException, IOException {
         try {
-            final ByteArray ba = readRawObject();
-            final T cerealObject = cerealClass.newInstance();
+            final ByteArray ba = nextObject();
+            final T cerealObject = CerealFactory.of(cerealClass).get();
             ((Cerealizable) cerealObject).uncerealizeFrom(ba);
             return Optional.of(cerealObject);
         } catch (final EOFException e) {
@@ -38,9 +86,23 @@ public class CerealInputStream extends InputStream {
         }
     }
 
+    /**
+     * Reads the next object into a new object from factory, for example {@code Forecast::new}.
+     */
+    public <T extends Cerealizable> Optional<T> read(final Supplier<T> factory) throws IOException {
+        try {
+            final ByteArray ba = nextObject();
+            final T cerealObject = factory.get();
+            cerealObject.uncerealizeFrom(ba);
+            return Optional.of(cerealObject);
+        } catch (final EOFException e) {
+            return Optional.empty();
+        }
+    }
+
     public <T> Optional<T> read(final Cerealizer<T> cerealizer) throws IOException {
         try {
-            final ByteArray ba = readRawObject();
+            final ByteArray ba = nextObject();
             final T cerealObject = cerealizer.uncerealizeFrom(ba);
             return Optional.of(cerealObject);
         } catch (final EOFException e) {
@@ -48,14 +110,121 @@ public class CerealInputStream extends InputStream {
         }
     }
 
+    /**
+     * Reads the next object without uncerealizing it. The returned ByteArray owns its bytes, and can be kept.
+     *
+     * @throws IllegalStateException in dictionary mode.
+     */
     public ByteArray readRawObject() throws IOException {
-        final byte[] byteLengthBuffer = new byte[OBJECT_BUFFER_SIZE];
-        inputStream.readFully(byteLengthBuffer);
-        final int length = ByteArray.bytesToInt(byteLengthBuffer, 0);
-        final byte[] cerealizedObjectBuffer = new byte[length];
-        inputStream.readFully(cerealizedObjectBuffer);
+        checkNoDictionary();
+        final int length = readObjectLength();
+        final byte[] cerealizedObjectBuffer = readFully(length);
         position += length + OBJECT_BUFFER_SIZE;
-        return new ByteArray(cerealizedObjectBuffer);
+        final ByteArray ba = new ByteArray(cerealizedObjectBuffer);
+        ba.setCharset(bufferView.charset());
+        return ba;
+    }
+
+    /**
+     * Skips the next object without uncerealizing or copying it.
+     *
+     * @throws EOFException if there are no more objects.
+     * @throws IllegalStateException in dictionary mode.
+     */
+    public void skipRawObject() throws IOException {
+        checkNoDictionary();
+        final int length = readObjectLength();
+        int remaining = length;
+        while (remaining > 0) {
+            if (bufferPos == bufferLimit) {
+                fill(1);
+            }
+            final int n = Math.min(remaining, bufferLimit - bufferPos);
+            bufferPos += n;
+            remaining -= n;
+        }
+        position += length + OBJECT_BUFFER_SIZE;
+    }
+
+    private void checkNoDictionary() {
+        if (stringDictionary != null) {
+            throw new IllegalStateException("the Strings of every object must be read in dictionary mode");
+        }
+    }
+
+    /**
+     * Reads the next object, as a view on the buffer when it fits. The returned ByteArray is only valid until the next
+     * read from this stream.
+     */
+    ByteArray nextObject() throws IOException {
+        final int length = readObjectLength();
+        final ByteArray ba;
+        if (fill(length)) {
+            bufferView.reset(buffer, bufferPos, length);
+            bufferPos += length;
+            ba = bufferView;
+        } else {
+            final byte[] bytes = readFully(length);
+            ba = stringDictionary != null ? new DictionaryByteArray(bytes, stringDictionary) : new ByteArray(bytes);
+            ba.setCharset(bufferView.charset());
+        }
+        position += length + OBJECT_BUFFER_SIZE;
+        return ba;
+    }
+
+    private int readObjectLength() throws IOException {
+        fill(OBJECT_BUFFER_SIZE);
+        final int length = ByteArray.bytesToInt(buffer, bufferPos);
+        if (length < 0) {
+            throw new IOException("Invalid object length " + length + " at position " + position);
+        }
+        bufferPos += OBJECT_BUFFER_SIZE;
+        return length;
+    }
+
+    /**
+     * Makes sure that at least numBytes are available in the buffer, moving the remaining bytes to the front of the
+     * buffer and reading from the underlying stream as needed.
+     *
+     * @return false if the buffer is too small to ever hold numBytes.
+     * @throws EOFException if the underlying stream ends before numBytes are available.
+     */
+    private boolean fill(final int numBytes) throws IOException {
+        if (bufferLimit - bufferPos >= numBytes) {
+            return true;
+        }
+        if (numBytes > buffer.length) {
+            return false;
+        }
+        System.arraycopy(buffer, bufferPos, buffer, 0, bufferLimit - bufferPos);
+        bufferLimit -= bufferPos;
+        bufferPos = 0;
+        while (bufferLimit < numBytes) {
+            final int read = inputStream.read(buffer, bufferLimit, buffer.length - bufferLimit);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            bufferLimit += read;
+        }
+        return true;
+    }
+
+    /**
+     * Reads numBytes into a new array, first from the buffer, then straight from the underlying stream.
+     */
+    private byte[] readFully(final int numBytes) throws IOException {
+        final byte[] bytes = new byte[numBytes];
+        int copied = Math.min(numBytes, bufferLimit - bufferPos);
+        System.arraycopy(buffer, bufferPos, bytes, 0, copied);
+        bufferPos += copied;
+        while (copied < numBytes) {
+            final int read = inputStream.read(bytes, copied, numBytes - copied);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            copied += read;
+        }
+        return bytes;
     }
 
     public long position() {
@@ -64,7 +233,14 @@ public class CerealInputStream extends InputStream {
 
     @Override
     public long skip(final long n) throws IOException {
-        final long skipped = super.skip(n);
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, bufferLimit - bufferPos);
+        bufferPos += (int) skipped;
+        if (skipped < n) {
+            skipped += inputStream.skip(n - skipped);
+        }
         position += skipped;
         return skipped;
     }
@@ -0,0 +1,90 @@
+package re.nectar.lib.cereal;
+
+/**
+ * Extracts a sort key straight from the cerealized bytes of an object, so that objects can be sorted without being
+ * uncerealized, by a {@link CerealFileSorter}.
+ * <p>
+ * Keys are longs, compared as signed longs. The static factories read a field at a fixed offset of the cerealized
+ * object, which works as long as every field before it has a fixed size. For example, a class that cerealizes a long id
+ * and then a long timestamp can be sorted by timestamp with {@code CerealKey.longAt(8)}.
+ */
+@FunctionalInterface
+public interface CerealKey {
+
+    /**
+     * @param bytes  an array holding the cerealized object
+     * @param offset the index of the first byte of the object in bytes
+     * @param length the number of cerealized bytes of the object
+     * @return the sort key of the object.
+     */
+    long keyOf(byte[] bytes, int offset, int length);
+
+    /**
+     * @return a key that orders objects by the long cerealized at fieldOffset.
+     */
+    static CerealKey longAt(final int fieldOffset) {
+        return (bytes, offset, length) -> {
+            checkField(fieldOffset, 8, length);
+            return ByteArray.bytesToLong(bytes, offset + fieldOffset);
+        };
+    }
+
+    /**
+     * @return a key that orders objects by the int cerealized at fieldOffset.
+     */
+    static CerealKey intAt(final int fieldOffset) {
+        return (bytes, offset, length) -> {
+            checkField(fieldOffset, 4, length);
+            return ByteArray.bytesToInt(bytes, offset + fieldOffset);
+        };
+    }
+
+    /**
+     * @return a key that orders objects by the float cerealized at fieldOffset, in the order of {@link Float#compare}.
+     */
+    static CerealKey floatAt(final int fieldOffset) {
+        return (bytes, offset, length) -> {
+            checkField(fieldOffset, 4, length);
+            final int bits = Float.floatToIntBits(ByteArray.bytesToFloat(bytes, offset + fieldOffset));
+            // flip the magnitude of negative numbers, so that comparing the bits as ints orders the floats.
+            return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+        };
+    }
+
+    /**
+     * @return a key that orders objects by the double cerealized at fieldOffset, in the order of {@link Double#compare}.
+     */
+    static CerealKey doubleAt(final int fieldOffset) {
+        return (bytes, offset, length) -> {
+            checkField(fieldOffset, 8, length);
+            final long bits = Double.doubleToLongBits(ByteArray.bytesToDouble(bytes, offset + fieldOffset));
+            return bits ^ ((bits >> 63) & 0x7FFFFFFFFFFFFFFFL);
+        };
+    }
+
+    /**
+     * @return a key that orders objects by the unsigned, lexicographic order of up to 8 bytes starting at fieldOffset.
+     * Objects that are too short to hold all of them are padded with zeros.
+     */
+    static CerealKey bytesAt(final int fieldOffset, final int fieldLength) {
+        if (fieldLength < 1 || fieldLength > 8) {
+            throw new IllegalArgumentException("a bytes key is 1 to 8 bytes long");
+        }
+        return (bytes, offset, length) -> {
+            long key = 0;
+            for (int t = 0; t < 8; t++) {
+                final int idx = fieldOffset + t;
+                key = (key << 8) | (t < fieldLength && idx < length ? bytes[offset + idx] & 0xFF : 0);
+            }
+            // flip the sign bit, so that comparing as signed longs gives the unsigned order.
+            return key ^ Long.MIN_VALUE;
+        };
+    }
+
+    private static void checkField(final int fieldOffset, final int fieldLength, final int length) {
+        if (fieldOffset < 0 || fieldOffset + fieldLength > length) {
+            throw new IllegalArgumentException("an object of " + length + " bytes has no " + fieldLength
+                    + " bytes field at offset " + fieldOffset);
+        }
+    }
+}
@@ -2,33 +2,65 @@ package re.nectar.lib.cereal;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 public class CerealMap<K extends Cerealizable, V extends Cerealizable> extends HashMap<K, V> implements Cerealizable {
 
     private final Class<K> keyClass;
     private final Class<V> valueClass;
+    private final transient Supplier<K> keyFactory;
+    private final transient Supplier<V> valueFactory;
 
     public CerealMap(final int initialCapacity, final float loadFactor, final Class<K> keyClass, final Class<V> valueClass) {
         super(initialCapacity, loadFactor);
         this.keyClass = keyClass;
         this.valueClass = valueClass;
+        this.keyFactory = null;
+        this.valueFactory = null;
     }
 
     public CerealMap(final int initialCapacity, final Class<K> keyClass, final Class<V> valueClass) {
         super(initialCapacity);
         this.keyClass = keyClass;
         this.valueClass = valueClass;
+        this.keyFactory = null;
+        this.valueFactory = null;
     }
 
     public CerealMap(final Class<K> keyClass, final Class<V> valueClass) {
         this.keyClass = keyClass;
         this.valueClass = valueClass;
+        this.keyFactory = null;
+        this.valueFactory = null;
     }
 
     public CerealMap(final Map<? extends K, ? extends V> m, final Class<K> keyClass, final Class<V> valueClass) {
         super(m);
         this.keyClass = keyClass;
         this.valueClass = valueClass;
+        this.keyFactory = null;
+        this.valueFactory = null;
+    }
+
+    /**
+     * The factories are transient: a copy made by Java serialization can't be uncerealized into.
+     *
+     * @param keyFactory   creates the keys to uncerealize into, for example {@code Location::new}.
+     * @param valueFactory creates the values to uncerealize into.
+     */
+    public CerealMap(final Supplier<K> keyFactory, final Supplier<V> valueFactory) {
+        this.keyClass = null;
+        this.valueClass = null;
+        this.keyFactory = keyFactory;
+        this.valueFactory = valueFactory;
+    }
+
+    public CerealMap(final Map<? extends K, ? extends V> m, final Supplier<K> keyFactory, final Supplier<V> valueFactory) {
+        super(m);
+        this.keyClass = null;
+        this.valueClass = null;
+        this.keyFactory = keyFactory;
+        this.valueFactory = valueFactory;
     }
 
     @Override
@@ -42,17 +74,15 @@ public class CerealMap<K extends Cerealizable, V extends Cerealizable> extends H
 
     @Override
     public void uncerealizeFrom(final ByteArray ba) {
-        try {
-            int size = ba.getInt();
-            for (int t = 0; t < size; t++) {
-                final K key = keyClass.newInstance();
-                key.uncerealizeFrom(ba);
-                final V value = valueClass.newInstance();
-                value.uncerealizeFrom(ba);
-                put(key, value);
-            }
-        } catch (InstantiationException | IllegalAccessException e) {
-            throw new RuntimeException(e);
+        final Supplier<K> keys = keyFactory != null ? keyFactory : CerealFactory.of(keyClass);
+        final Supplier<V> values = valueFactory != null ? valueFactory : CerealFactory.of(valueClass);
+        int size = ba.getInt();
+        for (int t = 0; t < size; t++) {
+            final K key = keys.get();
+            key.uncerealizeFrom(ba);
+            final V value = values.get();
+            value.uncerealizeFrom(ba);
+            put(key, value);
         }
     }
 }
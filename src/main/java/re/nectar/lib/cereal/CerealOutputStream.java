@@ -1,37 +1,130 @@
 package re.nectar.lib.cereal;
 
 import re.nectar.lib.cereal.cerealizer.Cerealizer;
+import re.nectar.lib.cereal.cerealizer.DictionaryStringCerealizer;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 
+/**
+ * Writes a stream of cerealized objects, each one prefixed by its length in bytes.
+ * <p>
+ * Objects are cerealized into a scratch ByteArray that is reused from one write to the next, and written straight to
+ * the underlying stream from there, so writing many small objects produces next to no garbage. As a consequence, this
+ * class is NOT threadsafe.
+ */
 public class CerealOutputStream extends OutputStream {
 
     private final OutputStream outputStream;
+    private ByteArray scratch = new ByteArray();
+    private DictionaryStringCerealizer stringDictionary = null;
+    private final byte[] byteLengthBuffer = new byte[4];
+    private final OutputStream indexOutputStream;
+    private final CerealIndex index;
+    private long position = 0;
 
     public CerealOutputStream(final OutputStream outputStream) {
         this.outputStream = outputStream;
+        this.indexOutputStream = null;
+        this.index = null;
+    }
+
+    /**
+     * @param indexOutputStream where to write the index (usually the {@link CerealIndex#sidecarOf(java.nio.file.Path)}
+     *                          file) when this stream is closed.
+     * @param indexInterval     index the offset of one object every indexInterval objects.
+     */
+    public CerealOutputStream(final OutputStream outputStream, final OutputStream indexOutputStream, final int indexInterval) {
+        this.outputStream = outputStream;
+        this.indexOutputStream = indexOutputStream;
+        this.index = new CerealIndex(indexInterval);
+    }
+
+    /**
+     * Turns on the dictionary mode: from now on, the Strings that objects write with {@link ByteArray#add(String)} are
+     * written in full the first time only, and as a var int id afterwards, see {@link DictionaryStringCerealizer}. The
+     * ids span the whole stream, so it must be read back in order, from the first object, by a
+     * {@link CerealInputStream} in dictionary mode, which means this should be called before the first write. The ids
+     * given while writing an object are committed once it's written, and rolled back if it fails.
+     *
+     * @param stringDictionary a new dictionary, which mustn't be used anywhere else, or null to write Strings in full.
+     */
+    public void setStringDictionary(final DictionaryStringCerealizer stringDictionary) {
+        this.stringDictionary = stringDictionary;
+        final Charset charset = scratch.charset();
+        this.scratch = stringDictionary != null ? new DictionaryByteArray(stringDictionary) : new ByteArray();
+        scratch.setCharset(charset);
+    }
+
+    /**
+     * Sets the charset the objects write their Strings in, which is UTF-8 by default, see
+     * {@link ByteArray#setCharset(Charset)}.
+     */
+    public void setCharset(final Charset charset) {
+        scratch.setCharset(charset);
     }
 
     public void write(final Cerealizable cerealizable) throws IOException {
-        final ByteArray ba = new ByteArray();
-        cerealizable.cerealizeTo(ba);
-        writeRawObject(ba);
+        scratch.reset();
+        boolean written = false;
+        try {
+            cerealizable.cerealizeTo(scratch);
+            writeRawObject(scratch);
+            written = true;
+        } finally {
+            endObject(written);
+        }
     }
 
 
     public <U> void write(final Cerealizer<U> cerealizer, final U obj) throws IOException {
-        final ByteArray ba = new ByteArray();
-        cerealizer.cerealizeTo(ba, obj);
-        writeRawObject(ba);
+        scratch.reset();
+        boolean written = false;
+        try {
+            cerealizer.cerealizeTo(scratch, obj);
+            writeRawObject(scratch);
+            written = true;
+        } finally {
+            endObject(written);
+        }
     }
 
-    private void writeRawObject(final ByteArray ba) throws IOException {
-        final byte[] byteLengthBuffer = new byte[4];
-        final byte[] cerealizedObjectBuffer = ba.getAllBytes();
-        ByteArray.intToBytes(cerealizedObjectBuffer.length, byteLengthBuffer, 0);
+    private void endObject(final boolean written) {
+        if (stringDictionary != null) {
+            if (written) {
+                stringDictionary.commit();
+            } else {
+                stringDictionary.rollback();
+            }
+        }
+    }
+
+    /**
+     * Writes the contents of the given ByteArray as one object. The ByteArray is left unchanged.
+     */
+    public void writeRawObject(final ByteArray ba) throws IOException {
+        if (index != null) {
+            index.add(position);
+        }
+        ByteArray.intToBytes(ba.length(), byteLengthBuffer, 0);
         outputStream.write(byteLengthBuffer);
-        outputStream.write(cerealizedObjectBuffer);
+        ba.writeTo(outputStream);
+        position += byteLengthBuffer.length + ba.length();
+    }
+
+    /**
+     * @return the number of bytes written so far.
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * @return the index of the objects written so far, or null if this stream doesn't build an index.
+     */
+    public CerealIndex index() {
+        return index;
     }
 
     @Override
@@ -41,16 +134,35 @@ public class CerealOutputStream extends OutputStream {
 
     @Override
     public void close() throws IOException {
-        outputStream.close();
+        try {
+            outputStream.close();
+        } catch (IOException | RuntimeException | Error e) {
+            // the data may be truncated: no index, which would point past its end.
+            if (indexOutputStream != null) {
+                try {
+                    indexOutputStream.close();
+                } catch (IOException indexException) {
+                    e.addSuppressed(indexException);
+                }
+            }
+            throw e;
+        }
+        if (indexOutputStream != null) {
+            try (OutputStream ios = indexOutputStream) {
+                ByteArray.cerealize(index).writeTo(ios);
+            }
+        }
     }
 
     @Override
     public void write(final int b) throws IOException {
         outputStream.write(b);
+        position++;
     }
 
     @Override
     public void write(final byte[] b, final int off, final int len) throws IOException {
         outputStream.write(b, off, len);
+        position += len;
     }
 }
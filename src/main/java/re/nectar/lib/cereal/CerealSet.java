@@ -2,17 +2,37 @@ package re.nectar.lib.cereal;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.function.Supplier;
 
 public class CerealSet<T extends Cerealizable> extends HashSet<T> implements Cerealizable {
     private final Class<T> clazz;
+    private final transient Supplier<T> factory;
 
     public CerealSet(final Class<T> clazz) {
         this.clazz = clazz;
+        this.factory = null;
+    }
+
+    /**
+     * The factory is transient: a copy made by Java serialization can't be uncerealized into.
+     *
+     * @param factory creates the elements to uncerealize into, for example {@code Forecast::new}.
+     */
+    public CerealSet(final Supplier<T> factory) {
+        this.clazz = null;
+        this.factory = factory;
     }
 
     public CerealSet(final Collection<? extends T> c, final Class<T> clazz) {
         super(c);
         this.clazz = clazz;
+        this.factory = null;
+    }
+
+    public CerealSet(final Collection<? extends T> c, final Supplier<T> factory) {
+        super(c);
+        this.clazz = null;
+        this.factory = factory;
     }
 
     @Override
@@ -25,16 +45,12 @@ public class CerealSet<T extends Cerealizable> extends HashSet<T> implements Cer
 
     @Override
     public void uncerealizeFrom(final ByteArray ba) {
-        try {
-            int size = ba.getInt();
-            for (int t = 0; t < size; t++) {
-                final T object;
-                object = clazz.newInstance();
-                object.uncerealizeFrom(ba);
-                add(object);
-            }
-        } catch (InstantiationException | IllegalAccessException e) {
-            throw new RuntimeException(e);
+        final Supplier<T> elementFactory = factory != null ? factory : CerealFactory.of(clazz);
+        int size = ba.getInt();
+        for (int t = 0; t < size; t++) {
+            final T object = elementFactory.get();
+            object.uncerealizeFrom(ba);
+            add(object);
         }
     }
 }
@@ -0,0 +1,113 @@
+package re.nectar.lib.cereal;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a stream written by a {@link DeflatedBlockOutputStream}, one block at a time.
+ */
+class DeflatedBlockInputStream extends InputStream {
+
+    private final InputStream inputStream;
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] header = new byte[8];
+    private byte[] stored = new byte[0];
+    private byte[] block = new byte[0];
+    private int blockPos = 0;
+    private int blockLimit = 0;
+
+    DeflatedBlockInputStream(final InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (blockPos == blockLimit && !readBlock()) {
+            return -1;
+        }
+        return block[blockPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (blockPos == blockLimit && !readBlock()) {
+            return -1;
+        }
+        final int n = Math.min(len, blockLimit - blockPos);
+        System.arraycopy(block, blockPos, b, off, n);
+        blockPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return blockLimit - blockPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        inputStream.close();
+    }
+
+    /**
+     * @return false at the end of the stream.
+     */
+    private boolean readBlock() throws IOException {
+        if (!readFully(header, 0, header.length, true)) {
+            return false;
+        }
+        final int length = ByteArray.bytesToInt(header, 0);
+        final int storedLength = ByteArray.bytesToInt(header, 4);
+        if (length < 0 || storedLength < 0 || storedLength > length) {
+            throw new IOException("Invalid block header: " + length + " bytes stored in " + storedLength);
+        }
+        if (block.length < length) {
+            block = new byte[length];
+        }
+        if (storedLength == length) {
+            readFully(block, 0, length, false);
+        } else {
+            if (stored.length < storedLength) {
+                stored = new byte[storedLength];
+            }
+            readFully(stored, 0, storedLength, false);
+            inflater.reset();
+            inflater.setInput(stored, 0, storedLength);
+            try {
+                if (inflater.inflate(block, 0, length) != length || !inflater.finished()) {
+                    throw new IOException("Corrupted block of " + length + " bytes");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            }
+        }
+        blockPos = 0;
+        blockLimit = length;
+        return true;
+    }
+
+    /**
+     * @return false if the stream ended before the first byte and endAllowed is true.
+     */
+    private boolean readFully(final byte[] b, final int off, final int len, final boolean endAllowed) throws IOException {
+        int read = 0;
+        while (read < len) {
+            final int n = inputStream.read(b, off + read, len - read);
+            if (n < 0) {
+                if (read == 0 && endAllowed) {
+                    return false;
+                }
+                throw new EOFException();
+            }
+            read += n;
+        }
+        return true;
+    }
+}
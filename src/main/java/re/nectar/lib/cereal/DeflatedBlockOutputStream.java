@@ -0,0 +1,93 @@
+package re.nectar.lib.cereal;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses a stream in independent blocks, each one written as its uncompressed length, its stored length, then its
+ * stored bytes. Blocks which don't shrink are stored uncompressed, and their stored length equals their uncompressed
+ * length. Read back with a {@link DeflatedBlockInputStream}.
+ * <p>
+ * Used for CerealFileSorter's temporary files, which are written and read once, so the default is the fastest
+ * compression level.
+ */
+class DeflatedBlockOutputStream extends FilterOutputStream {
+
+    private final Deflater deflater;
+    private final byte[] block;
+    private final byte[] compressed;
+    private final byte[] header = new byte[8];
+    private int blockPos = 0;
+
+    DeflatedBlockOutputStream(final OutputStream outputStream, final int blockSize) {
+        this(outputStream, blockSize, Deflater.BEST_SPEED);
+    }
+
+    DeflatedBlockOutputStream(final OutputStream outputStream, final int blockSize, final int level) {
+        super(outputStream);
+        this.deflater = new Deflater(level, true);
+        this.block = new byte[blockSize];
+        this.compressed = new byte[blockSize];
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        if (blockPos == block.length) {
+            writeBlock();
+        }
+        block[blockPos++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (blockPos == block.length) {
+                writeBlock();
+            }
+            final int n = Math.min(len, block.length - blockPos);
+            System.arraycopy(b, off, block, blockPos, n);
+            blockPos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writeBlock();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (blockPos == 0) {
+            return;
+        }
+        deflater.reset();
+        deflater.setInput(block, 0, blockPos);
+        deflater.finish();
+        // only keep the compressed block if it's smaller.
+        final int compressedLength = deflater.deflate(compressed, 0, blockPos - 1);
+        final boolean stored = !deflater.finished();
+        ByteArray.intToBytes(blockPos, header, 0);
+        ByteArray.intToBytes(stored ? blockPos : compressedLength, header, 4);
+        out.write(header);
+        if (stored) {
+            out.write(block, 0, blockPos);
+        } else {
+            out.write(compressed, 0, compressedLength);
+        }
+        blockPos = 0;
+    }
+}
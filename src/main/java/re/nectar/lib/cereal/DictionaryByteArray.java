@@ -0,0 +1,33 @@
+package re.nectar.lib.cereal;
+
+import re.nectar.lib.cereal.cerealizer.DictionaryStringCerealizer;
+
+/**
+ * The ByteArray that streams in dictionary mode hand out to the objects they write or read: {@link #add(String)} and
+ * {@link #getString()} go through the dictionary of the stream, the other String methods are not affected. Copies of
+ * it are plain ByteArrays, which read the ids of the dictionary as lengths, so objects must be uncerealized from it
+ * directly.
+ */
+class DictionaryByteArray extends ByteArray {
+
+    private final DictionaryStringCerealizer dictionary;
+
+    DictionaryByteArray(final DictionaryStringCerealizer dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    DictionaryByteArray(final byte[] b, final DictionaryStringCerealizer dictionary) {
+        super(b);
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public void add(final String s) {
+        dictionary.cerealizeTo(this, s);
+    }
+
+    @Override
+    public String getString() {
+        return dictionary.uncerealizeFrom(this);
+    }
+}
@@ -0,0 +1,27 @@
+package re.nectar.lib.cereal;
+
+/**
+ * Estimates how much heap memory uncerealized objects take, so that a {@link CerealFileSorter} can size its chunks to
+ * a memory budget rather than to a number of cerealized bytes.
+ *
+ * @param <T>
+ */
+@FunctionalInterface
+public interface HeapSizeEstimator<T> {
+
+    /**
+     * @param object         an uncerealized object
+     * @param cerealizedSize the number of bytes the object was cerealized to
+     * @return an estimate of the heap memory retained by the object, in bytes.
+     */
+    long estimate(T object, int cerealizedSize);
+
+    /**
+     * @return an estimator which measures a sample of the objects by walking their fields, and estimates the others from
+     * the average ratio between the heap size and the cerealized size of the measured objects. The returned estimator is
+     * NOT threadsafe.
+     */
+    static <T> HeapSizeEstimator<T> sampling() {
+        return new SamplingHeapSizeEstimator<>();
+    }
+}
@@ -0,0 +1,122 @@
+package re.nectar.lib.cereal;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Merges k sorted sources with a tournament tree of losers.
+ * <p>
+ * Each internal node of the tree remembers the source that lost the match played there, and the overall winner is
+ * kept apart. Taking the winner only replays the matches on the path from its leaf to the root, so each object costs
+ * about log2(k) comparisons, and nothing is allocated per object.
+ * <p>
+ * Ties are won by the source with the lowest index, so merging consecutive sorted runs of a file is a stable sort.
+ * <p>
+ * A source may return the same, mutable object every time, as long as the caller is done with the winner when it calls
+ * {@link #next()}: use {@link #peek()} to get the winner, then {@link #next()} to move on.
+ *
+ * @param <T>
+ */
+final class LoserTree<T> {
+
+    /**
+     * A sorted source of objects.
+     */
+    @FunctionalInterface
+    interface Source<T> {
+        /**
+         * @return the next object, or null when the source is exhausted.
+         */
+        T next() throws IOException;
+    }
+
+    private final Comparator<? super T> comparator;
+    private final Source<T>[] sources;
+    // the current head of each source, null once it's exhausted.
+    private final Object[] heads;
+    // tree[0] is the winner, tree[1..k-1] the loser of the match played at that node. Leaves are the nodes k..2k-1.
+    private final int[] tree;
+    private final int k;
+
+    @SuppressWarnings("unchecked")
+    LoserTree(final List<? extends Source<T>> sources, final Comparator<? super T> comparator) throws IOException {
+        this.comparator = comparator;
+        this.sources = sources.toArray((Source<T>[]) new Source<?>[0]);
+        this.k = this.sources.length;
+        this.heads = new Object[k];
+        for (int t = 0; t < k; t++) {
+            heads[t] = this.sources[t].next();
+        }
+        this.tree = new int[Math.max(k, 1)];
+        tree[0] = k == 0 ? -1 : (k == 1 ? 0 : play(1));
+    }
+
+    boolean hasNext() {
+        return k > 0 && heads[tree[0]] != null;
+    }
+
+    /**
+     * @return the smallest head of all sources, without removing it, or null if all sources are exhausted.
+     */
+    @SuppressWarnings("unchecked")
+    T peek() {
+        return k == 0 ? null : (T) heads[tree[0]];
+    }
+
+    /**
+     * Removes and returns the smallest head of all sources, and reads the next object of its source.
+     *
+     * @return null if all sources are exhausted.
+     */
+    @SuppressWarnings("unchecked")
+    T next() throws IOException {
+        if (!hasNext()) {
+            return null;
+        }
+        int winner = tree[0];
+        final T object = (T) heads[winner];
+        heads[winner] = sources[winner].next();
+        for (int node = (winner + k) >>> 1; node > 0; node >>>= 1) {
+            if (beats(tree[node], winner)) {
+                final int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+        return object;
+    }
+
+    /**
+     * Plays the initial matches of the subtree at node, fills in its losers, and returns its winner.
+     */
+    private int play(final int node) {
+        if (node >= k) {
+            return node - k;
+        }
+        final int left = play(node << 1);
+        final int right = play((node << 1) + 1);
+        if (beats(left, right)) {
+            tree[node] = right;
+            return left;
+        }
+        tree[node] = left;
+        return right;
+    }
+
+    /**
+     * @return true if the head of source a comes before the head of source b. Exhausted sources come last.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean beats(final int a, final int b) {
+        if (heads[a] == null) {
+            return false;
+        }
+        if (heads[b] == null) {
+            return true;
+        }
+        final int c = comparator.compare((T) heads[a], (T) heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+}
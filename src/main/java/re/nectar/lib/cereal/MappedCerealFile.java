@@ -0,0 +1,263 @@
+package re.nectar.lib.cereal;
+
+import re.nectar.lib.cereal.cerealizer.Cerealizer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read only, memory mapped access to a Cereal file, as written by a {@link CerealOutputStream}.
+ * <p>
+ * The file is mapped in segments of up to 1GB, so files larger than 2GB can be read. Reading objects from a warm file
+ * doesn't go through read() system calls at all.
+ * <p>
+ * Use {@link #cursor()} to walk through the objects of the file: each object can be accessed as a ByteBuffer (a zero
+ * copy slice of the mapping, unless the object straddles two segments), as a ByteArray, or uncerealized directly.
+ * Since ByteArray only works on heap arrays, the last two copy the object's bytes once, into a buffer that the cursor
+ * reuses.
+ * <p>
+ * The mapping is released when this object is garbage collected, Java doesn't offer a way to unmap it sooner.
+ */
+public class MappedCerealFile implements Closeable {
+
+    private static final int OBJECT_BUFFER_SIZE = 4; // 4 bytes for an int.
+    private static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+    private final long size;
+    private final long segmentSize;
+    private MappedByteBuffer[] segments;
+
+    public MappedCerealFile(final Path path) throws IOException {
+        this(path, DEFAULT_SEGMENT_SIZE);
+    }
+
+    MappedCerealFile(final Path path, final long segmentSize) throws IOException {
+        this.segmentSize = segmentSize;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            segments = new MappedByteBuffer[(int) ((size + segmentSize - 1) / segmentSize)];
+            for (int t = 0; t < segments.length; t++) {
+                final long offset = t * segmentSize;
+                segments[t] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(segmentSize, size - offset));
+            }
+        }
+    }
+
+    /**
+     * @return the size of the file in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return a new cursor, positioned before the first object of the file.
+     */
+    public Cursor cursor() {
+        return new Cursor(0);
+    }
+
+    /**
+     * @return a new cursor, positioned before the object starting at the given byte offset in the file.
+     */
+    public Cursor cursor(final long position) {
+        if (position < 0 || position > size) {
+            throw new IndexOutOfBoundsException("position " + position + " is outside of a file of " + size + " bytes");
+        }
+        return new Cursor(position);
+    }
+
+    /**
+     * Iterates over every object of the file, uncerealized with the given cerealizer.
+     */
+    public <T> Iterator<T> iterator(final Cerealizer<T> cerealizer) {
+        final Cursor cursor = cursor();
+        return new Iterator<>() {
+            private boolean hasNext = cursor.next();
+
+            @Override
+            public boolean hasNext() {
+                return hasNext;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext) {
+                    throw new NoSuchElementException();
+                }
+                final T object = cursor.read(cerealizer);
+                hasNext = cursor.next();
+                return object;
+            }
+        };
+    }
+
+    /**
+     * Releases the mapping for the garbage collector. The cursors and iterators of this file throw
+     * IllegalStateException afterwards.
+     */
+    @Override
+    public void close() {
+        segments = null;
+    }
+
+    private MappedByteBuffer[] segments() {
+        final MappedByteBuffer[] mapped = segments;
+        if (mapped == null) {
+            throw new IllegalStateException("closed");
+        }
+        return mapped;
+    }
+
+    private MappedByteBuffer segment(final long position) {
+        return segments()[(int) (position / segmentSize)];
+    }
+
+    private int getInt(final long position) {
+        final MappedByteBuffer segment = segment(position);
+        final int offset = (int) (position % segmentSize);
+        if (offset + OBJECT_BUFFER_SIZE <= segment.limit()) {
+            return segment.getInt(offset);
+        }
+        final byte[] bytes = new byte[OBJECT_BUFFER_SIZE];
+        get(position, bytes, OBJECT_BUFFER_SIZE);
+        return ByteArray.bytesToInt(bytes, 0);
+    }
+
+    /**
+     * Copies length bytes starting at position in the file into dest, across segments if needed.
+     */
+    private void get(final long position, final byte[] dest, final int length) {
+        int copied = 0;
+        while (copied < length) {
+            final MappedByteBuffer segment = segment(position + copied);
+            final int offset = (int) ((position + copied) % segmentSize);
+            final int n = Math.min(length - copied, segment.limit() - offset);
+            segment.get(offset, dest, copied, n);
+            copied += n;
+        }
+    }
+
+    /**
+     * Walks through the objects of a MappedCerealFile. Call {@link #next()} to move to the next object, then access it
+     * with {@link #buffer()}, {@link #byteArray()} or {@link #read(Cerealizer)}.
+     * <p>
+     * A cursor is NOT threadsafe, but many cursors can be used concurrently on the same file.
+     */
+    public class Cursor {
+        private long nextPosition;
+        private long position = -1;
+        private int length = -1;
+        private byte[] scratch = new byte[0];
+        private final ByteArray scratchView = new ByteArray();
+
+        private Cursor(final long position) {
+            this.nextPosition = position;
+        }
+
+        /**
+         * Moves to the next object.
+         *
+         * @return false at the end of the file.
+         * @throws UncheckedIOException if the file is corrupted: it ends in the middle of an object, or a length is
+         *                              negative.
+         */
+        public boolean next() {
+            segments();
+            if (nextPosition == size) {
+                return false;
+            }
+            if (nextPosition + OBJECT_BUFFER_SIZE > size) {
+                throw corrupted("a truncated length");
+            }
+            final int objectLength = getInt(nextPosition);
+            if (objectLength < 0 || nextPosition + OBJECT_BUFFER_SIZE + objectLength > size) {
+                throw corrupted("an object of " + objectLength + " bytes");
+            }
+            position = nextPosition + OBJECT_BUFFER_SIZE;
+            length = objectLength;
+            nextPosition = position + length;
+            return true;
+        }
+
+        /**
+         * @return the byte offset in the file of the current object's length prefix.
+         */
+        public long position() {
+            return position - OBJECT_BUFFER_SIZE;
+        }
+
+        /**
+         * @return the number of cerealized bytes of the current object.
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * @return the cerealized bytes of the current object. This is a read only slice of the mapped file, unless the
+         * object straddles two segments, in which case it's a copy.
+         */
+        public ByteBuffer buffer() {
+            checkPositioned();
+            if (length == 0) {
+                return ByteBuffer.allocate(0).asReadOnlyBuffer();
+            }
+            final MappedByteBuffer segment = segment(position);
+            final int offset = (int) (position % segmentSize);
+            if (offset + length <= segment.limit()) {
+                return segment.slice(offset, length);
+            }
+            final byte[] bytes = new byte[length];
+            get(position, bytes, length);
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+
+        /**
+         * @return the cerealized bytes of the current object. The ByteArray is reused by this cursor, and is only valid
+         * until the next call to {@link #next()}.
+         */
+        public ByteArray byteArray() {
+            checkPositioned();
+            scratchView.reset(copy(), 0, length);
+            return scratchView;
+        }
+
+        /**
+         * Uncerealizes the current object with the given cerealizer.
+         */
+        public <T> T read(final Cerealizer<T> cerealizer) {
+            return cerealizer.uncerealizeFrom(byteArray());
+        }
+
+        /**
+         * Copies the current object in the scratch array, which only grows, and returns it.
+         */
+        private byte[] copy() {
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            get(position, scratch, length);
+            return scratch;
+        }
+
+        private UncheckedIOException corrupted(final String what) {
+            return new UncheckedIOException(new IOException("Corrupted file: " + what + " at " + nextPosition
+                    + ", in a file of " + size + " bytes"));
+        }
+
+        private void checkPositioned() {
+            if (length < 0) {
+                throw new IllegalStateException("next() must be called before accessing an object");
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package re.nectar.lib.cereal;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * See {@link HeapSizeEstimator#sampling()}.
+ * <p>
+ * Measured sizes assume a 64 bit JVM with compressed references: 12 bytes object headers, 16 bytes array headers,
+ * 4 bytes references and 8 bytes alignment. The fields of JDK classes usually can't be read, so Strings, collections
+ * and maps get rough estimates of their own instead of being walked.
+ *
+ * @param <T>
+ */
+class SamplingHeapSizeEstimator<T> implements HeapSizeEstimator<T> {
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    // measure every one of the first objects, then one in SAMPLING_INTERVAL.
+    private static final int WARMUP_SAMPLES = 16;
+    private static final int SAMPLING_INTERVAL = 100;
+    private static final long MIN_OBJECT_SIZE = 16;
+
+    private final Map<Class<?>, ClassLayout> layouts = new HashMap<>();
+    private long count = 0;
+    private long samples = 0;
+    private long measuredHeapSize = 0;
+    private long measuredCerealizedSize = 0;
+
+    @Override
+    public long estimate(final T object, final int cerealizedSize) {
+        if (count++ < WARMUP_SAMPLES || count % SAMPLING_INTERVAL == 0) {
+            final long heapSize = deepSizeOf(object);
+            samples++;
+            measuredHeapSize += heapSize;
+            measuredCerealizedSize += cerealizedSize;
+            return heapSize;
+        }
+        if (measuredCerealizedSize == 0) {
+            return Math.max(MIN_OBJECT_SIZE, measuredHeapSize / samples);
+        }
+        return Math.max(MIN_OBJECT_SIZE, cerealizedSize * measuredHeapSize / measuredCerealizedSize);
+    }
+
+    /**
+     * @return the number of bytes of heap retained by the object and everything it references.
+     */
+    long deepSizeOf(final Object root) {
+        final IdentityHashMap<Object, Boolean> seen = new IdentityHashMap<>();
+        final ArrayDeque<Object> toVisit = new ArrayDeque<>();
+        long size = 0;
+        if (root != null) {
+            toVisit.push(root);
+        }
+        while (!toVisit.isEmpty()) {
+            final Object object = toVisit.pop();
+            if (seen.put(object, Boolean.TRUE) != null || isShared(object)) {
+                continue;
+            }
+            final Class<?> clazz = object.getClass();
+            if (clazz.isArray()) {
+                size += sizeOfArray(object, clazz.getComponentType(), toVisit);
+            } else if (object instanceof String string) {
+                size += align(OBJECT_HEADER + 12) + align(ARRAY_HEADER + string.length());
+            } else if (object instanceof Collection<?> collection && isJdkClass(clazz)) {
+                size += align(OBJECT_HEADER + 20) + collection.size() * 16L;
+                for (final Object element : collection) {
+                    pushIfNotNull(toVisit, element);
+                }
+            } else if (object instanceof Map<?, ?> map && isJdkClass(clazz)) {
+                size += align(OBJECT_HEADER + 36) + map.size() * 40L;
+                for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                    pushIfNotNull(toVisit, entry.getKey());
+                    pushIfNotNull(toVisit, entry.getValue());
+                }
+            } else {
+                final ClassLayout layout = layoutOf(clazz);
+                size += layout.shallowSize;
+                for (final Field field : layout.referenceFields) {
+                    try {
+                        pushIfNotNull(toVisit, field.get(object));
+                    } catch (IllegalAccessException e) {
+                        // only accessible fields are in the layout.
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    private static long sizeOfArray(final Object array, final Class<?> componentType, final ArrayDeque<Object> toVisit) {
+        if (componentType.isPrimitive()) {
+            return align(ARRAY_HEADER + (long) Array.getLength(array) * primitiveSize(componentType));
+        }
+        final Object[] objects = (Object[]) array;
+        for (final Object element : objects) {
+            pushIfNotNull(toVisit, element);
+        }
+        return align(ARRAY_HEADER + (long) objects.length * REFERENCE);
+    }
+
+    private ClassLayout layoutOf(final Class<?> clazz) {
+        ClassLayout layout = layouts.get(clazz);
+        if (layout == null) {
+            long fieldsSize = 0;
+            final List<Field> referenceFields = new ArrayList<>();
+            for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+                for (final Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    if (field.getType().isPrimitive()) {
+                        fieldsSize += primitiveSize(field.getType());
+                    } else {
+                        fieldsSize += REFERENCE;
+                        if (field.trySetAccessible()) {
+                            referenceFields.add(field);
+                        }
+                    }
+                }
+            }
+            layout = new ClassLayout(align(OBJECT_HEADER + fieldsSize), referenceFields.toArray(new Field[0]));
+            layouts.put(clazz, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Objects that are not retained by a single object: classes and enum constants.
+     */
+    private static boolean isShared(final Object object) {
+        return object instanceof Class<?> || object instanceof Enum<?>;
+    }
+
+    private static boolean isJdkClass(final Class<?> clazz) {
+        return clazz.getName().startsWith("java.");
+    }
+
+    private static void pushIfNotNull(final ArrayDeque<Object> toVisit, final Object object) {
+        if (object != null) {
+            toVisit.push(object);
+        }
+    }
+
+    private static int primitiveSize(final Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static long align(final long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private record ClassLayout(long shallowSize, Field[] referenceFields) {
+    }
+}
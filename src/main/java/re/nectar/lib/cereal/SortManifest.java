@@ -0,0 +1,313 @@
+package re.nectar.lib.cereal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * The progress of a checkpointed {@link CerealFileSorter} sort, kept in a text file of the workspace so that a sort
+ * which was interrupted can resume where it stopped.
+ * <p>
+ * The first line identifies the input and the number of shards. Each other line records a completed step, with the
+ * name, length and CRC32C of every file it wrote:
+ * <pre>
+ * run &lt;run&gt; &lt;input end&gt; &lt;records&gt; (&lt;file&gt; &lt;length&gt; &lt;crc&gt;)...   a sorted chunk, one file per shard
+ * runs &lt;count&gt;                                                     all the chunks are sorted
+ * merge &lt;shard&gt; &lt;first&gt; &lt;count&gt; &lt;file&gt; &lt;length&gt; &lt;crc&gt;             count runs of the shard, from first on, merged into file
+ * </pre>
+ * Files are synced before the line that records them, and the runs replaced by a merge are only deleted once it's
+ * recorded. Runs can complete out of order, so only the runs up to the first missing or damaged one are resumed. A
+ * manifest that names anything but temp files of the sort, in the workspace, can't be resumed, and those files are
+ * left alone.
+ */
+final class SortManifest {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final Path directory;
+    private final Pattern tempFileName;
+    private final List<List<File>> shardRuns = new ArrayList<>();
+    // every file named by the manifest, which new temp files must not overwrite.
+    private final Set<String> recorded = new HashSet<>();
+    private int completedRuns = 0;
+    private long inputOffset = 0;
+    private boolean runsComplete = false;
+
+    private SortManifest(final Path file, final int shards, final String filePrefix) {
+        this.file = file;
+        this.directory = file.toAbsolutePath().normalize().getParent();
+        this.tempFileName = Pattern.compile(Pattern.quote(filePrefix) + "_tmp_[0-9]+\\.cereal");
+        for (int t = 0; t < shards; t++) {
+            shardRuns.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * @return the name of the nth temp file of a sort whose files are named after filePrefix.
+     */
+    static String tempFileName(final String filePrefix, final int n) {
+        return filePrefix + "_tmp_" + n + ".cereal";
+    }
+
+    /**
+     * Reads the manifest file if it exists and was written for the same header, keeps what can be resumed, and deletes
+     * the files of anything else. Otherwise, starts a new manifest.
+     *
+     * @param filePrefix the prefix of the temp files of the sort, the only files the manifest may name.
+     */
+    static SortManifest open(final Path file, final String header, final int shards, final String filePrefix) throws IOException {
+        final List<String> lines = Files.exists(file) ? Files.readAllLines(file, StandardCharsets.UTF_8) : List.of();
+        SortManifest manifest = new SortManifest(file, shards, filePrefix);
+        List<String> kept = null;
+        if (!lines.isEmpty() && lines.get(0).equals(header) && manifest.namesOnlyTempFiles(lines)) {
+            try {
+                kept = manifest.replay(lines);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                kept = null;
+            }
+            if (kept == null) {
+                manifest = new SortManifest(file, shards, filePrefix);
+            }
+        }
+        final List<String> rewritten = new ArrayList<>();
+        rewritten.add(header);
+        if (kept != null) {
+            rewritten.addAll(kept);
+        }
+        // the files of the old lines that were not kept are leftovers of the interrupted sort.
+        for (String line : lines) {
+            final String[] tokens = line.split(" ");
+            for (String name : fileNames(tokens)) {
+                if (manifest.isTempFile(name) && !manifest.recorded.contains(name)) {
+                    Files.deleteIfExists(manifest.directory.resolve(name));
+                }
+            }
+        }
+        final Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tempFile, rewritten, StandardCharsets.UTF_8);
+        sync(tempFile);
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return manifest;
+    }
+
+    private boolean namesOnlyTempFiles(final List<String> lines) {
+        for (String line : lines.subList(1, lines.size())) {
+            for (String name : fileNames(line.split(" "))) {
+                if (!isTempFile(name)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if name is the name of a temp file of this sort, in the workspace.
+     */
+    private boolean isTempFile(final String name) {
+        if (!tempFileName.matcher(name).matches()) {
+            return false;
+        }
+        return directory.equals(directory.resolve(name).normalize().getParent());
+    }
+
+    /**
+     * @return the lines to keep, or null if the sort can't be resumed at all.
+     */
+    private List<String> replay(final List<String> lines) throws IOException {
+        final Map<Integer, String[]> runs = new HashMap<>();
+        final List<String[]> merges = new ArrayList<>();
+        int runCount = -1;
+        for (String line : lines.subList(1, lines.size())) {
+            final String[] tokens = line.split(" ");
+            switch (tokens[0]) {
+                case "run" -> runs.put(Integer.parseInt(tokens[1]), tokens);
+                case "runs" -> runCount = Integer.parseInt(tokens[1]);
+                case "merge" -> merges.add(tokens);
+                default -> {
+                    return null;
+                }
+            }
+        }
+        final List<String> kept = new ArrayList<>();
+        String[] run;
+        // once merged, runs are deleted: they are only checked if the merge hasn't started.
+        final boolean merging = runCount >= 0;
+        while ((run = runs.get(completedRuns)) != null && run.length == 4 + 3 * shardRuns.size() && (merging || isIntact(run, 4))) {
+            for (int shard = 0; shard < shardRuns.size(); shard++) {
+                shardRuns.get(shard).add(directory.resolve(run[4 + 3 * shard]).toFile());
+            }
+            recorded.addAll(fileNames(run));
+            inputOffset = Long.parseLong(run[2]);
+            kept.add(String.join(" ", run));
+            completedRuns++;
+        }
+        if (!merging) {
+            return kept;
+        }
+        if (completedRuns != runCount) {
+            return null;
+        }
+        runsComplete = true;
+        kept.add("runs " + runCount);
+        final Map<String, String[]> descriptions = new HashMap<>();
+        for (int t = 0; t < runCount; t++) {
+            describeFiles(runs.get(t), descriptions);
+        }
+        for (String[] merge : merges) {
+            final List<File> runFiles = shardRuns.get(Integer.parseInt(merge[1]));
+            final int first = Integer.parseInt(merge[2]);
+            final int count = Integer.parseInt(merge[3]);
+            if (first + count > runFiles.size()) {
+                return null;
+            }
+            runFiles.subList(first, first + count).clear();
+            runFiles.add(first, directory.resolve(merge[4]).toFile());
+            recorded.addAll(fileNames(merge));
+            describeFiles(merge, descriptions);
+            kept.add(String.join(" ", merge));
+        }
+        // the runs that are left must all be intact, since the ones they were merged from are gone.
+        for (List<File> runFiles : shardRuns) {
+            for (File runFile : runFiles) {
+                if (!isIntact(descriptions.get(runFile.getName()), 0)) {
+                    return null;
+                }
+            }
+        }
+        return kept;
+    }
+
+    private static void describeFiles(final String[] tokens, final Map<String, String[]> descriptions) {
+        for (int t = 4; t + 2 < tokens.length; t += 3) {
+            descriptions.put(tokens[t], new String[]{tokens[t], tokens[t + 1], tokens[t + 2]});
+        }
+    }
+
+    /**
+     * @return true if the files described by tokens, from start on, exist and have the recorded length and checksum.
+     */
+    private boolean isIntact(final String[] tokens, final int start) throws IOException {
+        for (int t = start; t + 2 < tokens.length; t += 3) {
+            final Path path = directory.resolve(tokens[t]);
+            if (!isTempFile(tokens[t]) || !Files.exists(path) || Files.size(path) != Long.parseLong(tokens[t + 1])
+                    || checksum(path.toFile()) != Long.parseLong(tokens[t + 2])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> fileNames(final String[] tokens) {
+        final int start = switch (tokens[0]) {
+            case "run", "merge" -> 4;
+            default -> tokens.length;
+        };
+        final List<String> names = new ArrayList<>();
+        for (int t = start; t < tokens.length; t += 3) {
+            names.add(tokens[t]);
+        }
+        return names;
+    }
+
+    /**
+     * @return the number of chunks that are sorted, which are the first ones of the input.
+     */
+    int completedRuns() {
+        return completedRuns;
+    }
+
+    /**
+     * @return the number of input bytes consumed by the completed runs.
+     */
+    long inputOffset() {
+        return inputOffset;
+    }
+
+    /**
+     * @return true if every chunk was sorted, and only the merge is left.
+     */
+    boolean runsComplete() {
+        return runsComplete;
+    }
+
+    /**
+     * @return the runs of each shard left to merge, in order.
+     */
+    List<List<File>> shardRuns() {
+        return shardRuns;
+    }
+
+    synchronized boolean isRecorded(final File file) {
+        return recorded.contains(file.getName());
+    }
+
+    void runCompleted(final int run, final long inputEnd, final long records, final File[] files) throws IOException {
+        append("run " + run + " " + inputEnd + " " + records + describe(files));
+    }
+
+    void runsCompleted(final int count) throws IOException {
+        append("runs " + count);
+    }
+
+    void mergeCompleted(final int shard, final int first, final int count, final File merged) throws IOException {
+        append("merge " + shard + " " + first + " " + count + describe(merged));
+    }
+
+    /**
+     * Deletes the manifest, once the sort is done.
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private String describe(final File... files) throws IOException {
+        final StringBuilder description = new StringBuilder();
+        for (File run : files) {
+            sync(run.toPath());
+            description.append(' ').append(run.getName()).append(' ').append(run.length()).append(' ').append(checksum(run));
+            synchronized (this) {
+                recorded.add(run.getName());
+            }
+        }
+        return description.toString();
+    }
+
+    private synchronized void append(final String line) throws IOException {
+        Files.writeString(file, line + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+    }
+
+    private static void sync(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static long checksum(final File file) throws IOException {
+        final CRC32C crc = new CRC32C();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -5,8 +5,11 @@
 package re.nectar.lib.cereal.cerealizer;
 
 import re.nectar.lib.cereal.ByteArray;
+import re.nectar.lib.cereal.CerealFactory;
 import re.nectar.lib.cereal.Cerealizable;
 
+import java.util.function.Supplier;
+
 /**
  * This class can be used as a bridge between {@link Cerealizable} and {@link Cerealizer}
  * Indeed, you can use a Cerealizer everywhere you can use a Cerealizable. Using this class let you also use easily a Cerealizez instead of a Cerealizable
@@ -15,9 +18,22 @@ import re.nectar.lib.cereal.Cerealizable;
 public class CerealizableCerealizer<T extends Cerealizable> implements Cerealizer<T> {
 
     private final Class<T> clazz;
+    private final Supplier<T> factory;
 
+    /**
+     * @param clazz the class of the objects, which only needs an empty constructor to uncerealize them.
+     */
     public CerealizableCerealizer(final Class<T> clazz) {
         this.clazz = clazz;
+        this.factory = null;
+    }
+
+    /**
+     * @param factory creates the objects to uncerealize into, for example {@code Forecast::new}.
+     */
+    public CerealizableCerealizer(final Supplier<T> factory) {
+        this.clazz = null;
+        this.factory = factory;
     }
 
     @Override
@@ -27,7 +43,7 @@ public class CerealizableCerealizer<T extends Cerealizable> implements Cerealize
 
     @Override
     public T uncerealizeFrom(final ByteArray ba) {
-        return ba.get(clazz);
+        return ba.get(factory != null ? factory : CerealFactory.of(clazz));
     }
 
 }
@@ -0,0 +1,117 @@
+package re.nectar.lib.cereal.cerealizer;
+
+import re.nectar.lib.cereal.ByteArray;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cerealizes Strings that repeat a lot, like names or tags, by writing each distinct String once: the first occurrence
+ * is written in full and gets the next id, the later ones are written as a var int of their id, in 1 or 2 bytes for
+ * the first 8K Strings. When reading, every occurrence of a String returns the same instance.
+ * <p>
+ * Each String starts with a var long code: 0 for null, (length &lt;&lt; 1) | 1 for a String written in full, followed
+ * by its length bytes, or (id + 1) &lt;&lt; 1 for a String already seen. The ids depend on everything written before,
+ * so the Strings must be read back by a new instance, in the order they were written, from the same sequence of
+ * objects: use one instance per stream or file, never one for several streams, and don't skip over objects. Once
+ * maxSize Strings are known, new Strings are written in full every time, so that unique Strings can't grow the
+ * dictionary without bounds.
+ * <p>
+ * The Strings that get an id are only final once {@link #commit()} is called: if the bytes written since the last
+ * commit never make it to the stream, {@link #rollback()} forgets them, so that the ids of the writer stay those of
+ * the reader. {@link re.nectar.lib.cereal.CerealOutputStream#setStringDictionary} does both after each object.
+ * <p>
+ * This class is NOT threadsafe.
+ */
+public class DictionaryStringCerealizer implements Cerealizer<String> {
+
+    public static final int DEFAULT_MAX_SIZE = 64 * 1024;
+    private static final long NULL = 0;
+
+    private final int maxSize;
+    private final Map<String, Integer> ids = new HashMap<>();
+    // the Strings which got an id since the last commit.
+    private final List<String> uncommitted = new ArrayList<>();
+    private final List<String> strings = new ArrayList<>();
+
+    public DictionaryStringCerealizer() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize the maximum number of distinct Strings to remember. The reader must use the same value.
+     */
+    public DictionaryStringCerealizer(final int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public void cerealizeTo(final ByteArray ba, final String obj) {
+        if (obj == null) {
+            ba.addVarLong(NULL);
+            return;
+        }
+        final Integer id = ids.get(obj);
+        if (id != null) {
+            ba.addVarLong((id + 1L) << 1);
+            return;
+        }
+        if (ids.size() < maxSize) {
+            ids.put(obj, ids.size());
+            uncommitted.add(obj);
+        }
+        final byte[] bytes = ba.stringBytes(obj);
+        ba.addVarLong(((long) bytes.length << 1) | 1);
+        ba.addRawBytes(bytes);
+    }
+
+    @Override
+    public String uncerealizeFrom(final ByteArray ba) {
+        final long code = ba.getVarLong();
+        if (code == NULL) {
+            return null;
+        }
+        if ((code & 1) == 1) {
+            final String s = ba.getString((int) (code >>> 1));
+            if (strings.size() < maxSize) {
+                strings.add(s);
+            }
+            return s;
+        }
+        final long id = (code >>> 1) - 1;
+        if (id >= strings.size()) {
+            throw new IllegalStateException("unknown String id " + id + ", only " + strings.size() + " Strings were read");
+        }
+        return strings.get((int) id);
+    }
+
+    /**
+     * Makes the ids given since the last commit final, once the bytes that hold their Strings are written.
+     */
+    public void commit() {
+        uncommitted.clear();
+    }
+
+    /**
+     * Forgets the Strings which got an id since the last commit, because the bytes that hold them were not written:
+     * they will be written in full again next time.
+     */
+    public void rollback() {
+        for (String s : uncommitted) {
+            ids.remove(s);
+        }
+        uncommitted.clear();
+    }
+
+    /**
+     * @return the number of distinct Strings written or read so far, up to maxSize.
+     */
+    public int size() {
+        return Math.max(ids.size(), strings.size());
+    }
+}
@@ -0,0 +1,19 @@
+package re.nectar.lib.cereal.cerealizer;
+
+import re.nectar.lib.cereal.ByteArray;
+
+/**
+ * Cerealizes a double[] as its length, then its values in one contiguous block, copied in bulk. It's much faster than a
+ * ListCerealizer of Double, which boxes every value, and it writes the same bytes (or -1 for a null array).
+ */
+public class DoubleArrayCerealizer implements Cerealizer<double[]> {
+    @Override
+    public void cerealizeTo(ByteArray ba, double[] values) {
+        ba.add(values);
+    }
+
+    @Override
+    public double[] uncerealizeFrom(ByteArray ba) {
+        return ba.getDoubleArray();
+    }
+}
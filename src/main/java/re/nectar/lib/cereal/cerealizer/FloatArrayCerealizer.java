@@ -0,0 +1,19 @@
+package re.nectar.lib.cereal.cerealizer;
+
+import re.nectar.lib.cereal.ByteArray;
+
+/**
+ * Cerealizes a float[] as its length, then its values in one contiguous block, copied in bulk. It's much faster than a
+ * ListCerealizer of Float, which boxes every value, and it writes the same bytes (or -1 for a null array).
+ */
+public class FloatArrayCerealizer implements Cerealizer<float[]> {
+    @Override
+    public void cerealizeTo(ByteArray ba, float[] values) {
+        ba.add(values);
+    }
+
+    @Override
+    public float[] uncerealizeFrom(ByteArray ba) {
+        return ba.getFloatArray();
+    }
+}
@@ -0,0 +1,19 @@
+package re.nectar.lib.cereal.cerealizer;
+
+import re.nectar.lib.cereal.ByteArray;
+
+/**
+ * Cerealizes a int[] as its length, then its values in one contiguous block, copied in bulk. It's much faster than a
+ * ListCerealizer of Integer, which boxes every value, and it writes the same bytes (or -1 for a null array).
+ */
+public class IntArrayCerealizer implements Cerealizer<int[]> {
+    @Override
+    public void cerealizeTo(ByteArray ba, int[] values) {
+        ba.add(values);
+    }
+
+    @Override
+    public int[] uncerealizeFrom(ByteArray ba) {
+        return ba.getIntArray();
+    }
+}
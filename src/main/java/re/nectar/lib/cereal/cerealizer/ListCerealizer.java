@@ -19,7 +19,7 @@ public class ListCerealizer<U> implements Cerealizer<List<U>> {
 
     @Override
     public void cerealizeTo(final ByteArray ba, final List<U> obj) {
-        ba.add(obj.size());
+        addSize(ba, obj.size());
         for (final U o : obj) {
             cerealizer.cerealizeTo(ba, o);
         }
@@ -27,11 +27,19 @@ public class ListCerealizer<U> implements Cerealizer<List<U>> {
 
     @Override
     public List<U> uncerealizeFrom(final ByteArray ba) {
-        final int length = ba.getInt();
+        final int length = getSize(ba);
         final List<U> list = new ArrayList<>(length);
         for (int i = 0; i < length; i++) {
             list.add(cerealizer.uncerealizeFrom(ba));
         }
         return list;
     }
+
+    protected void addSize(final ByteArray ba, final int size) {
+        ba.add(size);
+    }
+
+    protected int getSize(final ByteArray ba) {
+        return ba.getInt();
+    }
 }
@@ -0,0 +1,19 @@
+package re.nectar.lib.cereal.cerealizer;
+
+import re.nectar.lib.cereal.ByteArray;
+
+/**
+ * Cerealizes a long[] as its length, then its values in one contiguous block, copied in bulk. It's much faster than a
+ * ListCerealizer of Long, which boxes every value, and it writes the same bytes (or -1 for a null array).
+ */
+public class LongArrayCerealizer implements Cerealizer<long[]> {
+    @Override
+    public void cerealizeTo(ByteArray ba, long[] values) {
+        ba.add(values);
+    }
+
+    @Override
+    public long[] uncerealizeFrom(ByteArray ba) {
+        return ba.getLongArray();
+    }
+}
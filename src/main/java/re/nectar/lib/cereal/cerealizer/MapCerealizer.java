@@ -21,7 +21,7 @@ public class MapCerealizer<K, V> implements Cerealizer<Map<K,V>> {
 
     @Override
     public void cerealizeTo(ByteArray ba, Map<K, V> map) {
-        ba.add(map.size());
+        addSize(ba, map.size());
         for (Map.Entry<K, V> entry : map.entrySet()) {
             keyCerealizer.cerealizeTo(ba, entry.getKey());
             valueCerealizer.cerealizeTo(ba, entry.getValue());
@@ -30,7 +30,7 @@ public class MapCerealizer<K, V> implements Cerealizer<Map<K,V>> {
 
     @Override
     public Map<K, V> uncerealizeFrom(ByteArray ba) {
-        int mapSize = ba.getInt();
+        int mapSize = getSize(ba);
         Map<K, V> map = new HashMap<>(mapSize);
         for (int i = 0; i < mapSize; i++) {
             K k = keyCerealizer.uncerealizeFrom(ba);
@@ -39,4 +39,12 @@ public class MapCerealizer<K, V> implements Cerealizer<Map<K,V>> {
         }
         return map;
     }
+
+    protected void addSize(final ByteArray ba, final int size) {
+        ba.add(size);
+    }
+
+    protected int getSize(final ByteArray ba) {
+        return ba.getInt();
+    }
 }
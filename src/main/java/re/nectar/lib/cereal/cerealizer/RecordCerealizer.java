@@ -0,0 +1,315 @@
+package re.nectar.lib.cereal.cerealizer;
+
+import re.nectar.lib.cereal.ByteArray;
+import re.nectar.lib.cereal.CerealFactory;
+import re.nectar.lib.cereal.Cerealizable;
+import re.nectar.lib.cereal.NullBitMap;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Cerealizes any record, from its components, without writing a Cerealizer for it.
+ * <p>
+ * The components are inspected once per record class: writing and reading are each a single method handle, chaining
+ * the accessors or the canonical constructor with the ByteArray methods, which the JIT compiles like hand written code
+ * after warm-up. The layout is the one of the cerealizers generated by {@link re.nectar.lib.cereal.Cereal}, so both can
+ * read each other's bytes: a {@link NullBitMap} of the components that can be null if there are any, then the
+ * primitive components, then the others, each group in declaration order.
+ * <p>
+ * Supported component types are primitives (except char), their boxed types, String, UUID, enums (as their ordinal),
+ * Cerealizable objects with an empty constructor, and arrays of bytes, ints, longs, floats and doubles.
+ *
+ * @param <T> the record class
+ */
+public final class RecordCerealizer<T extends Record> implements Cerealizer<T> {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final ClassValue<RecordCerealizer<?>> CEREALIZERS = new ClassValue<>() {
+        @Override
+        protected RecordCerealizer<?> computeValue(final Class<?> clazz) {
+            return new RecordCerealizer<>(clazz.asSubclass(Record.class));
+        }
+    };
+
+    private static final Map<Class<?>, Class<?>> BOXES = Map.of(Boolean.class, boolean.class, Byte.class, byte.class,
+            Short.class, short.class, Integer.class, int.class, Long.class, long.class, Float.class, float.class,
+            Double.class, double.class);
+
+    private static final Map<Class<?>, String> ARRAYS = Map.of(byte[].class, "ByteArray", int[].class, "IntArray",
+            long[].class, "LongArray", float[].class, "FloatArray", double[].class, "DoubleArray");
+
+    // (ByteArray, Object record)void
+    private final MethodHandle writer;
+    // (ByteArray)Object record
+    private final MethodHandle reader;
+
+    private RecordCerealizer(final Class<? extends Record> recordClass) {
+        if (!recordClass.isRecord()) {
+            throw new IllegalArgumentException(recordClass.getName() + " is not a record");
+        }
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(recordClass, LOOKUP);
+            final List<Component> components = new ArrayList<>();
+            int nullables = 0;
+            for (RecordComponent recordComponent : recordClass.getRecordComponents()) {
+                final Component component = new Component(recordComponent, lookup.unreflect(recordComponent.getAccessor()), nullables);
+                if (component.isNullable()) {
+                    nullables++;
+                }
+                components.add(component);
+            }
+            // the primitives come first, in a stable order.
+            final List<Component> order = new ArrayList<>(components.stream().filter(Component::isFixed).toList());
+            order.addAll(components.stream().filter(c -> !c.isFixed()).toList());
+            final Class<?>[] types = components.stream().map(c -> c.type).toArray(Class<?>[]::new);
+            final MethodHandle constructor = lookup.findConstructor(recordClass, MethodType.methodType(void.class, types));
+            this.writer = writer(order, nullables);
+            this.reader = reader(components, order, nullables, constructor);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException(recordClass.getName() + " is not accessible", e);
+        }
+    }
+
+    /**
+     * @return the cerealizer of recordClass, which is built once and threadsafe.
+     * @throws IllegalArgumentException if a component has an unsupported type, or the record is not accessible.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Record> RecordCerealizer<T> of(final Class<T> recordClass) {
+        return (RecordCerealizer<T>) CEREALIZERS.get(recordClass);
+    }
+
+    @Override
+    public void cerealizeTo(final ByteArray ba, final T obj) {
+        try {
+            writer.invokeExact(ba, (Object) obj);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T uncerealizeFrom(final ByteArray ba) {
+        try {
+            return (T) (Object) reader.invokeExact(ba);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    /**
+     * Chains the write of the null bitmap and of every component, in order, into one (ByteArray, Object)void.
+     */
+    private static MethodHandle writer(final List<Component> order, final int nullables)
+            throws NoSuchMethodException, IllegalAccessException {
+        MethodHandle writer = MethodHandles.empty(MethodType.methodType(void.class, ByteArray.class, Object.class));
+        for (int t = order.size() - 1; t >= 0; t--) {
+            writer = MethodHandles.foldArguments(writer, order.get(t).writer());
+        }
+        if (nullables == 0) {
+            return writer;
+        }
+        // (byte[] nulls, Object record)void, which marks the components that are null.
+        MethodHandle marker = MethodHandles.empty(MethodType.methodType(void.class, byte[].class, Object.class));
+        for (int t = order.size() - 1; t >= 0; t--) {
+            if (order.get(t).isNullable()) {
+                marker = MethodHandles.foldArguments(marker, order.get(t).marker());
+            }
+        }
+        // (byte[] nulls, ByteArray, Object record)void
+        final MethodHandle writeNulls = MethodHandles.dropArguments(MethodHandles.insertArguments(
+                LOOKUP.findStatic(RecordCerealizer.class, "writeNulls",
+                        MethodType.methodType(void.class, byte[].class, ByteArray.class, int.class)), 2, nullables),
+                2, Object.class);
+        final MethodHandle markThenWrite = MethodHandles.foldArguments(writeNulls,
+                MethodHandles.dropArguments(marker, 1, ByteArray.class));
+        final MethodHandle newNulls = MethodHandles.insertArguments(MethodHandles.arrayConstructor(byte[].class), 0,
+                (nullables + 7) / 8);
+        return MethodHandles.foldArguments(writer, MethodHandles.foldArguments(markThenWrite, newNulls));
+    }
+
+    /**
+     * Chains the read of the null bitmap and of every component, in order, then the canonical constructor, into one
+     * (ByteArray)Object.
+     */
+    private static MethodHandle reader(final List<Component> components, final List<Component> order, final int nullables,
+                                       final MethodHandle constructor) throws NoSuchMethodException, IllegalAccessException {
+        // the constructor, with its arguments in the order they are read.
+        final int[] reorder = new int[components.size()];
+        for (int t = 0; t < components.size(); t++) {
+            reorder[t] = order.indexOf(components.get(t));
+        }
+        final MethodType readOrderType = MethodType.methodType(constructor.type().returnType(),
+                order.stream().map(c -> c.type).toArray(Class<?>[]::new));
+        MethodHandle reader = MethodHandles.dropArguments(MethodHandles.permuteArguments(constructor, readOrderType, reorder),
+                order.size(), ByteArray.class, byte[].class);
+        // reader is (c0, ..., ct, ByteArray, byte[] nulls), each fold reads ct from the ByteArray before the next ones.
+        for (int t = order.size() - 1; t >= 0; t--) {
+            reader = MethodHandles.foldArguments(reader, t, order.get(t).reader());
+        }
+        reader = MethodHandles.permuteArguments(reader,
+                MethodType.methodType(reader.type().returnType(), byte[].class, ByteArray.class), 1, 0);
+        final MethodHandle readNulls = nullables == 0
+                ? MethodHandles.dropArguments(MethodHandles.constant(byte[].class, null), 0, ByteArray.class)
+                : LOOKUP.findStatic(RecordCerealizer.class, "readNulls", MethodType.methodType(byte[].class, ByteArray.class));
+        reader = MethodHandles.foldArguments(reader, 0, readNulls);
+        return reader.asType(MethodType.methodType(Object.class, ByteArray.class));
+    }
+
+    private static void writeNulls(final byte[] nulls, final ByteArray ba, final int count) {
+        ba.add(count);
+        ba.addByteArray(nulls);
+    }
+
+    private static byte[] readNulls(final ByteArray ba) {
+        ba.getInt();
+        return ba.getByteArray();
+    }
+
+    private static void markNull(final byte[] nulls, final Object value, final int bit) {
+        if (value == null) {
+            nulls[bit >> 3] |= (byte) (1 << (bit & 7));
+        }
+    }
+
+    /**
+     * Same as {@link NullBitMap#is(int)}: the components missing from the bitmap are null.
+     */
+    private static boolean isNull(final byte[] nulls, final int bit) {
+        return (bit >> 3) >= nulls.length || (nulls[bit >> 3] & (1 << (bit & 7))) != 0;
+    }
+
+    private static void addOrdinalIfNotNull(final ByteArray ba, final Enum<?> value) {
+        if (value != null) {
+            ba.add(value.ordinal());
+        }
+    }
+
+    private static Object readEnum(final Object[] values, final ByteArray ba) {
+        return values[ba.getInt()];
+    }
+
+    private static void addIfNotNull(final ByteArray ba, final Cerealizable value) {
+        if (value != null) {
+            value.cerealizeTo(ba);
+        }
+    }
+
+    /**
+     * A record component, and the method handles that write and read it.
+     */
+    private static final class Component {
+
+        private final Class<?> type;
+        // (Object record)type
+        private final MethodHandle accessor;
+        private final int bit;
+        private final boolean isFixed;
+        private final boolean isNullable;
+        // (ByteArray, type)void
+        private final MethodHandle add;
+        // (ByteArray)type
+        private final MethodHandle get;
+
+        Component(final RecordComponent component, final MethodHandle accessor, final int bit)
+                throws NoSuchMethodException, IllegalAccessException {
+            this.type = component.getType();
+            this.accessor = accessor.asType(MethodType.methodType(type, Object.class));
+            this.bit = bit;
+            this.isFixed = type.isPrimitive();
+            if (type.isPrimitive() && type != char.class) {
+                isNullable = false;
+                add = LOOKUP.findVirtual(ByteArray.class, "add", MethodType.methodType(void.class, type));
+                get = LOOKUP.findVirtual(ByteArray.class, "get" + capitalize(type.getName()), MethodType.methodType(type));
+            } else if (BOXES.containsKey(type)) {
+                isNullable = true;
+                add = LOOKUP.findVirtual(ByteArray.class, "addIfNotNull", MethodType.methodType(void.class, type));
+                final Class<?> primitive = BOXES.get(type);
+                get = LOOKUP.findVirtual(ByteArray.class, "get" + capitalize(primitive.getName()), MethodType.methodType(primitive))
+                        .asType(MethodType.methodType(type, ByteArray.class));
+            } else if (type == String.class || type == UUID.class) {
+                isNullable = true;
+                add = LOOKUP.findVirtual(ByteArray.class, "addIfNotNull", MethodType.methodType(void.class, type));
+                get = LOOKUP.findVirtual(ByteArray.class, type == String.class ? "getString" : "getUUID", MethodType.methodType(type));
+            } else if (type.isEnum()) {
+                isNullable = true;
+                add = LOOKUP.findStatic(RecordCerealizer.class, "addOrdinalIfNotNull",
+                        MethodType.methodType(void.class, ByteArray.class, Enum.class)).asType(MethodType.methodType(void.class, ByteArray.class, type));
+                get = MethodHandles.insertArguments(LOOKUP.findStatic(RecordCerealizer.class, "readEnum",
+                                MethodType.methodType(Object.class, Object[].class, ByteArray.class)), 0, (Object) type.getEnumConstants())
+                        .asType(MethodType.methodType(type, ByteArray.class));
+            } else if (Cerealizable.class.isAssignableFrom(type)) {
+                isNullable = true;
+                add = LOOKUP.findStatic(RecordCerealizer.class, "addIfNotNull",
+                        MethodType.methodType(void.class, ByteArray.class, Cerealizable.class)).asType(MethodType.methodType(void.class, ByteArray.class, type));
+                get = MethodHandles.insertArguments(LOOKUP.findVirtual(ByteArray.class, "get",
+                                MethodType.methodType(Cerealizable.class, Supplier.class)), 1, CerealFactory.of(type))
+                        .asType(MethodType.methodType(type, ByteArray.class));
+            } else if (ARRAYS.containsKey(type)) {
+                isNullable = false;
+                add = LOOKUP.findVirtual(ByteArray.class, type == byte[].class ? "addByteArray" : "add", MethodType.methodType(void.class, type));
+                get = LOOKUP.findVirtual(ByteArray.class, "get" + ARRAYS.get(type), MethodType.methodType(type));
+            } else {
+                throw new IllegalArgumentException("Record component " + component.getName() + " has an unsupported type " + type.getName());
+            }
+        }
+
+        boolean isFixed() {
+            return isFixed;
+        }
+
+        boolean isNullable() {
+            return isNullable;
+        }
+
+        /**
+         * @return (ByteArray, Object record)void, which writes the component, unless it's null.
+         */
+        MethodHandle writer() {
+            return MethodHandles.filterArguments(add, 1, accessor);
+        }
+
+        /**
+         * @return (byte[] nulls, Object record)void, which sets the bit of the component if it's null.
+         */
+        MethodHandle marker() throws NoSuchMethodException, IllegalAccessException {
+            final MethodHandle markNull = MethodHandles.insertArguments(LOOKUP.findStatic(RecordCerealizer.class, "markNull",
+                    MethodType.methodType(void.class, byte[].class, Object.class, int.class)), 2, bit);
+            return MethodHandles.filterArguments(markNull, 1, accessor.asType(MethodType.methodType(Object.class, Object.class)));
+        }
+
+        /**
+         * @return (ByteArray, byte[] nulls)type, which reads the component, or returns null if its bit is set.
+         */
+        MethodHandle reader() throws NoSuchMethodException, IllegalAccessException {
+            final MethodHandle read = MethodHandles.dropArguments(get, 1, byte[].class);
+            if (!isNullable) {
+                return read;
+            }
+            final MethodHandle isNull = MethodHandles.dropArguments(MethodHandles.insertArguments(
+                    LOOKUP.findStatic(RecordCerealizer.class, "isNull", MethodType.methodType(boolean.class, byte[].class, int.class)),
+                    1, bit), 0, ByteArray.class);
+            final MethodHandle none = MethodHandles.dropArguments(MethodHandles.constant(type, null), 0, ByteArray.class, byte[].class);
+            return MethodHandles.guardWithTest(isNull, none, read);
+        }
+
+        private static String capitalize(final String name) {
+            return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        }
+    }
+}
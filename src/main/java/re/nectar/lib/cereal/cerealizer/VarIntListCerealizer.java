@@ -0,0 +1,24 @@
+package re.nectar.lib.cereal.cerealizer;
+
+import re.nectar.lib.cereal.ByteArray;
+
+/**
+ * Same as {@link ListCerealizer}, with the size of the list written as a var int, in 1 byte instead of 4 for lists of
+ * less than 128 elements. The bytes are not compatible with ListCerealizer.
+ */
+public class VarIntListCerealizer<U> extends ListCerealizer<U> {
+
+    public VarIntListCerealizer(final Cerealizer<U> cerealizer) {
+        super(cerealizer);
+    }
+
+    @Override
+    protected void addSize(final ByteArray ba, final int size) {
+        ba.addVarInt(size);
+    }
+
+    @Override
+    protected int getSize(final ByteArray ba) {
+        return ba.getVarInt();
+    }
+}
@@ -0,0 +1,24 @@
+package re.nectar.lib.cereal.cerealizer;
+
+import re.nectar.lib.cereal.ByteArray;
+
+/**
+ * Same as {@link MapCerealizer}, with the size of the map written as a var int, in 1 byte instead of 4 for maps of
+ * less than 128 entries. The bytes are not compatible with MapCerealizer.
+ */
+public class VarIntMapCerealizer<K, V> extends MapCerealizer<K, V> {
+
+    public VarIntMapCerealizer(final Cerealizer<K> keyCerealizer, final Cerealizer<V> valueCerealizer) {
+        super(keyCerealizer, valueCerealizer);
+    }
+
+    @Override
+    protected void addSize(final ByteArray ba, final int size) {
+        ba.addVarInt(size);
+    }
+
+    @Override
+    protected int getSize(final ByteArray ba) {
+        return ba.getVarInt();
+    }
+}
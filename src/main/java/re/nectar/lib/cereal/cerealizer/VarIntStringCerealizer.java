@@ -0,0 +1,20 @@
+package re.nectar.lib.cereal.cerealizer;
+
+import re.nectar.lib.cereal.ByteArray;
+
+/**
+ * Same as {@link StringCerealizer}, with the length of the String written as a var int, in 1 byte instead of 4 for
+ * Strings of less than 127 bytes. The bytes are not compatible with StringCerealizer.
+ */
+public class VarIntStringCerealizer implements Cerealizer<String> {
+
+    @Override
+    public void cerealizeTo(final ByteArray ba, final String obj) {
+        ba.addVarString(obj);
+    }
+
+    @Override
+    public String uncerealizeFrom(final ByteArray ba) {
+        return ba.getVarString();
+    }
+}
@@ -0,0 +1,600 @@
+package re.nectar.lib.cereal.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.RecordComponentElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates the cerealizers of the classes and records annotated with {@link re.nectar.lib.cereal.Cereal}.
+ * <p>
+ * Registered as a service, so javac runs it when lib-cereal is on the annotation processor path.
+ */
+@SupportedAnnotationTypes("re.nectar.lib.cereal.Cereal")
+public class CerealProcessor extends AbstractProcessor {
+
+    private static final String CEREALIZABLE = "re.nectar.lib.cereal.Cerealizable";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                try {
+                    generate(element);
+                } catch (InvalidCerealException e) {
+                    error(e);
+                } catch (IOException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "Can't write the cerealizer of " + element + ": " + e.getMessage(), element);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void error(final InvalidCerealException e) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+    }
+
+    private void generate(final Element element) throws InvalidCerealException, IOException {
+        if (element.getKind() != ElementKind.CLASS && element.getKind() != ElementKind.RECORD) {
+            throw new InvalidCerealException(element, "@Cereal only applies to classes and records");
+        }
+        final TypeElement type = (TypeElement) element;
+        final boolean isRecord = type.getKind() == ElementKind.RECORD;
+        if (!type.getTypeParameters().isEmpty()) {
+            throw new InvalidCerealException(type, "@Cereal classes can't have type parameters");
+        }
+        for (Element t = type; t.getKind() != ElementKind.PACKAGE; t = t.getEnclosingElement()) {
+            if (t.getModifiers().contains(Modifier.PRIVATE)) {
+                throw new InvalidCerealException(type, "@Cereal classes can't be private");
+            }
+            if (((TypeElement) t).getNestingKind() == NestingKind.MEMBER && !t.getModifiers().contains(Modifier.STATIC)
+                    && t.getKind() == ElementKind.CLASS) {
+                throw new InvalidCerealException(type, "@Cereal classes can't be inner classes, make them static");
+            }
+        }
+        if (!isRecord) {
+            if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+                throw new InvalidCerealException(type, "@Cereal classes can't be abstract");
+            }
+            if (ElementFilter.constructorsIn(type.getEnclosedElements()).stream()
+                    .noneMatch(c -> c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE))) {
+                throw new InvalidCerealException(type, "@Cereal classes need a constructor without arguments");
+            }
+        }
+        final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        final List<Property> properties = isRecord ? recordProperties(type) : classProperties(type, pkg);
+        if (properties == null) {
+            return;
+        }
+        final String name = generatedName(type, pkg);
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualify(pkg, name), type).openWriter()) {
+            writer.write(new Generator(type, pkg, name, properties, isRecord).source());
+        }
+    }
+
+    /**
+     * @return the components of the record, or null if some of them can't be cerealized, which are reported.
+     */
+    private List<Property> recordProperties(final TypeElement type) {
+        final List<Property> properties = new ArrayList<>();
+        boolean valid = true;
+        for (RecordComponentElement component : type.getRecordComponents()) {
+            try {
+                final String name = component.getSimpleName().toString();
+                properties.add(new Property(component, name, component.asType(), encodingOf(component, component.asType()),
+                        "obj." + component.getAccessor().getSimpleName() + "()", null));
+            } catch (InvalidCerealException e) {
+                error(e);
+                valid = false;
+            }
+        }
+        return valid ? properties : null;
+    }
+
+    /**
+     * @return the fields of the class, or null if some of them can't be cerealized, which are reported.
+     */
+    private List<Property> classProperties(final TypeElement type, final PackageElement pkg) {
+        final List<TypeElement> hierarchy = new ArrayList<>();
+        for (TypeElement t = type; t != null; t = superclassOf(t)) {
+            hierarchy.add(0, t);
+        }
+        final List<Property> properties = new ArrayList<>();
+        // the cerealized fields of the superclasses, which a field of the same name would hide from obj.<name>.
+        final Map<String, TypeElement> inherited = new HashMap<>();
+        boolean valid = true;
+        for (TypeElement declaring : hierarchy) {
+            for (VariableElement field : ElementFilter.fieldsIn(declaring.getEnclosedElements())) {
+                final String name = field.getSimpleName().toString();
+                final TypeElement hidden = inherited.get(name);
+                if (hidden != null && hidden != declaring) {
+                    error(new InvalidCerealException(field, "@Cereal field " + name + " hides the field of "
+                            + hidden.getQualifiedName() + ", rename one of them or make it transient"));
+                    valid = false;
+                    continue;
+                }
+                final Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                inherited.put(name, declaring);
+                try {
+                    properties.add(fieldProperty(type, pkg, declaring, field));
+                } catch (InvalidCerealException e) {
+                    error(e);
+                    valid = false;
+                }
+            }
+        }
+        return valid ? properties : null;
+    }
+
+    private Property fieldProperty(final TypeElement type, final PackageElement pkg, final TypeElement declaring,
+                                   final VariableElement field) throws InvalidCerealException {
+        final Set<Modifier> modifiers = field.getModifiers();
+        final String name = field.getSimpleName().toString();
+        final TypeMirror fieldType = field.asType();
+        final Encoding encoding = encodingOf(field, fieldType);
+        if (isVisible(field, declaring, pkg) && !modifiers.contains(Modifier.FINAL)) {
+            return new Property(field, name, fieldType, encoding, "obj." + name, "obj." + name + " = %s");
+        }
+        final boolean isBoolean = fieldType.getKind() == TypeKind.BOOLEAN;
+        final ExecutableElement getter = findAccessor(type, pkg, (isBoolean ? "is" : "get") + capitalize(name), null);
+        final ExecutableElement setter = findAccessor(type, pkg, "set" + capitalize(name), fieldType);
+        if (getter == null || setter == null) {
+            throw new InvalidCerealException(field, "@Cereal field " + name
+                    + " must be visible from its package and not final, or have a getter and a setter, or be transient");
+        }
+        return new Property(field, name, fieldType, encoding, "obj." + getter.getSimpleName() + "()",
+                "obj." + setter.getSimpleName() + "(%s)");
+    }
+
+    private static TypeElement superclassOf(final TypeElement type) {
+        if (type.getSuperclass().getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        final TypeElement superclass = (TypeElement) ((DeclaredType) type.getSuperclass()).asElement();
+        return superclass.getQualifiedName().contentEquals("java.lang.Object") ? null : superclass;
+    }
+
+    /**
+     * @return true if the generated cerealizer, in package pkg, can access the member.
+     */
+    private boolean isVisible(final Element member, final TypeElement declaring, final PackageElement pkg) {
+        final Set<Modifier> modifiers = member.getModifiers();
+        if (modifiers.contains(Modifier.PUBLIC)) {
+            return true;
+        }
+        return !modifiers.contains(Modifier.PRIVATE) && processingEnv.getElementUtils().getPackageOf(declaring).equals(pkg);
+    }
+
+    /**
+     * @param parameterType the type of the only parameter, or null for a method without parameters.
+     */
+    private ExecutableElement findAccessor(final TypeElement type, final PackageElement pkg, final String name,
+                                          final TypeMirror parameterType) {
+        for (TypeElement t = type; t != null; t = superclassOf(t)) {
+            for (ExecutableElement method : ElementFilter.methodsIn(t.getEnclosedElements())) {
+                if (!method.getSimpleName().contentEquals(name) || method.getModifiers().contains(Modifier.STATIC)
+                        || !isVisible(method, t, pkg)) {
+                    continue;
+                }
+                if (parameterType == null ? method.getParameters().isEmpty()
+                        : method.getParameters().size() == 1
+                        && processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), parameterType)) {
+                    return method;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Encoding encodingOf(final Element element, final TypeMirror type) throws InvalidCerealException {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return Encoding.BOOLEAN;
+            case BYTE:
+                return Encoding.BYTE;
+            case SHORT:
+                return Encoding.SHORT;
+            case INT:
+                return Encoding.INT;
+            case LONG:
+                return Encoding.LONG;
+            case FLOAT:
+                return Encoding.FLOAT;
+            case DOUBLE:
+                return Encoding.DOUBLE;
+            case ARRAY:
+                switch (((ArrayType) type).getComponentType().getKind()) {
+                    case BYTE:
+                        return Encoding.BYTE_ARRAY;
+                    case INT:
+                        return Encoding.INT_ARRAY;
+                    case LONG:
+                        return Encoding.LONG_ARRAY;
+                    case FLOAT:
+                        return Encoding.FLOAT_ARRAY;
+                    case DOUBLE:
+                        return Encoding.DOUBLE_ARRAY;
+                    default:
+                        break;
+                }
+                break;
+            case DECLARED:
+                final TypeElement typeElement = (TypeElement) ((DeclaredType) type).asElement();
+                switch (typeElement.getQualifiedName().toString()) {
+                    case "java.lang.Boolean":
+                    case "java.lang.Byte":
+                    case "java.lang.Short":
+                    case "java.lang.Integer":
+                    case "java.lang.Long":
+                    case "java.lang.Float":
+                    case "java.lang.Double":
+                        return Encoding.BOXED;
+                    case "java.lang.String":
+                        return Encoding.STRING;
+                    case "java.util.UUID":
+                        return Encoding.UUID;
+                    default:
+                        break;
+                }
+                if (typeElement.getKind() == ElementKind.ENUM) {
+                    return Encoding.ENUM;
+                }
+                final TypeElement cerealizable = processingEnv.getElementUtils().getTypeElement(CEREALIZABLE);
+                if (processingEnv.getTypeUtils().isAssignable(type, cerealizable.asType())) {
+                    if (!((DeclaredType) type).getTypeArguments().isEmpty() || typeElement.getModifiers().contains(Modifier.ABSTRACT)
+                            || ElementFilter.constructorsIn(typeElement.getEnclosedElements()).stream()
+                            .noneMatch(c -> c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE))) {
+                        throw new InvalidCerealException(element, "@Cereal field " + element.getSimpleName()
+                                + " must be of a Cerealizable class without type parameters, which has a constructor without arguments");
+                    }
+                    return Encoding.CEREALIZABLE;
+                }
+                break;
+            default:
+                break;
+        }
+        throw new InvalidCerealException(element, "@Cereal field " + element.getSimpleName() + " has an unsupported type " + type
+                + ", make it transient or cerealize the class by hand");
+    }
+
+    private static String generatedName(final TypeElement type, final PackageElement pkg) {
+        return nestedName(type, pkg).replace('.', '_') + "Cerealizer";
+    }
+
+    /**
+     * @return the name of type relative to its package, such as Outer.Inner.
+     */
+    private static String nestedName(final TypeElement type, final PackageElement pkg) {
+        final String qualifiedName = type.getQualifiedName().toString();
+        return pkg.isUnnamed() ? qualifiedName : qualifiedName.substring(pkg.getQualifiedName().length() + 1);
+    }
+
+    private static String qualify(final PackageElement pkg, final String name) {
+        return pkg.isUnnamed() ? name : pkg.getQualifiedName() + "." + name;
+    }
+
+    private static String capitalize(final String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * How a field is written. The primitives have a fixed size, the arrays write their own length or null, and the
+     * others can be null, which is recorded in the null bitmap.
+     */
+    private enum Encoding {
+        BOOLEAN(1), BYTE(1), SHORT(2), INT(4), LONG(8), FLOAT(4), DOUBLE(8),
+        BYTE_ARRAY(0), INT_ARRAY(0), LONG_ARRAY(0), FLOAT_ARRAY(0), DOUBLE_ARRAY(0),
+        BOXED(0), STRING(0), UUID(0), ENUM(0), CEREALIZABLE(0);
+
+        private final int size;
+
+        Encoding(final int size) {
+            this.size = size;
+        }
+
+        boolean isFixed() {
+            return size > 0;
+        }
+
+        boolean isNullable() {
+            return ordinal() >= BOXED.ordinal();
+        }
+    }
+
+    /**
+     * @param read  the expression that reads the field of obj.
+     * @param write the statement that sets the field of obj to %s, or null for a record component.
+     */
+    private record Property(Element element, String name, TypeMirror type, Encoding encoding, String read, String write) {
+    }
+
+    /**
+     * Writes the source of one cerealizer.
+     */
+    private static final class Generator {
+
+        private final TypeElement type;
+        private final PackageElement pkg;
+        private final String name;
+        private final List<Property> properties;
+        private final boolean isRecord;
+        private final StringBuilder source = new StringBuilder();
+
+        Generator(final TypeElement type, final PackageElement pkg, final String name, final List<Property> properties,
+                  final boolean isRecord) {
+            this.type = type;
+            this.pkg = pkg;
+            this.name = name;
+            this.properties = properties;
+            this.isRecord = isRecord;
+        }
+
+        String source() {
+            final String typeName = nestedName(type, pkg);
+            final int nullableCount = (int) properties.stream().filter(p -> p.encoding().isNullable()).count();
+            final int fixedSize = properties.stream().mapToInt(p -> p.encoding().size).sum();
+
+            if (!pkg.isUnnamed()) {
+                line(0, "package " + pkg.getQualifiedName() + ";");
+                line(0, "");
+            }
+            if (!pkg.getQualifiedName().contentEquals("re.nectar.lib.cereal")) {
+                line(0, "import re.nectar.lib.cereal.ByteArray;");
+            }
+            line(0, "import re.nectar.lib.cereal.cerealizer.Cerealizer;");
+            line(0, "");
+            line(0, "import javax.annotation.processing.Generated;");
+            line(0, "");
+            line(0, "/**");
+            line(0, " * Cerealizes {@link " + typeName + "}, generated from its fields by the @Cereal annotation processor.");
+            line(0, " */");
+            line(0, "@Generated(\"" + CerealProcessor.class.getName() + "\")");
+            line(0, (type.getModifiers().contains(Modifier.PUBLIC) ? "public " : "") + "final class " + name
+                    + " implements Cerealizer<" + typeName + "> {");
+            for (Property property : properties) {
+                if (property.encoding() == Encoding.ENUM) {
+                    line(1, "");
+                    line(1, "private static final " + typeName(property) + "[] " + enumValues(property) + " = "
+                            + typeName(property) + ".values();");
+                }
+            }
+
+            line(1, "");
+            line(1, "@Override");
+            line(1, "public void cerealizeTo(final ByteArray ba, final " + typeName + " obj) {");
+            if (nullableCount > 0) {
+                line(2, "final byte[] nulls = new byte[" + ((nullableCount + 7) / 8) + "];");
+                int bit = 0;
+                for (Property property : properties) {
+                    if (property.encoding().isNullable()) {
+                        line(2, "if (" + property.read() + " == null) {");
+                        line(3, "nulls[" + bit / 8 + "] |= " + (1 << (bit % 8)) + ";");
+                        line(2, "}");
+                        bit++;
+                    }
+                }
+                line(2, "ba.add(" + nullableCount + ");");
+                line(2, "ba.addByteArray(nulls);");
+            }
+            if (fixedSize > 0) {
+                line(2, "final byte[] fixed = new byte[" + fixedSize + "];");
+                int offset = 0;
+                for (Property property : properties) {
+                    if (property.encoding().isFixed()) {
+                        line(2, writeFixed(property, offset));
+                        offset += property.encoding().size;
+                    }
+                }
+                line(2, "ba.addRawBytes(fixed, 0, " + fixedSize + ");");
+            }
+            for (Property property : properties) {
+                if (!property.encoding().isFixed()) {
+                    writeVariable(property);
+                }
+            }
+            line(1, "}");
+
+            line(1, "");
+            line(1, "@Override");
+            line(1, "public " + typeName + " uncerealizeFrom(final ByteArray ba) {");
+            if (nullableCount > 0) {
+                line(2, "ba.getInt();");
+                line(2, "final byte[] nulls = ba.getByteArray();");
+            }
+            if (!isRecord) {
+                line(2, "final " + typeName + " obj = new " + typeName + "();");
+            }
+            final List<String> values = new ArrayList<>(properties.size());
+            for (Property property : properties) {
+                values.add(null);
+            }
+            int bit = 0;
+            // fixed size fields come first in the bytes, whatever their position among the others. They are read one at
+            // a time, which decodes them in place instead of copying them out of the ByteArray first.
+            for (int t = 0; t < properties.size(); t++) {
+                final Property property = properties.get(t);
+                if (property.encoding().isFixed()) {
+                    values.set(t, readFixed(property));
+                }
+            }
+            for (int t = 0; t < properties.size(); t++) {
+                final Property property = properties.get(t);
+                if (property.encoding().isNullable()) {
+                    values.set(t, "(nulls[" + bit / 8 + "] & " + (1 << (bit % 8)) + ") != 0 ? null : " + readVariable(property));
+                    bit++;
+                } else if (!property.encoding().isFixed()) {
+                    values.set(t, readVariable(property));
+                }
+            }
+            if (isRecord) {
+                for (int t = 0; t < properties.size(); t++) {
+                    final Property property = properties.get(t);
+                    if (property.encoding().isFixed()) {
+                        line(2, "final " + typeName(property) + " _" + property.name() + " = " + values.get(t) + ";");
+                    }
+                }
+                for (int t = 0; t < properties.size(); t++) {
+                    final Property property = properties.get(t);
+                    if (!property.encoding().isFixed()) {
+                        line(2, "final " + typeName(property) + " _" + property.name() + " = " + values.get(t) + ";");
+                    }
+                }
+                final List<String> arguments = new ArrayList<>();
+                for (Property property : properties) {
+                    arguments.add("_" + property.name());
+                }
+                line(2, "return new " + typeName + "(" + String.join(", ", arguments) + ");");
+            } else {
+                for (int t = 0; t < properties.size(); t++) {
+                    if (properties.get(t).encoding().isFixed()) {
+                        line(2, String.format(properties.get(t).write(), values.get(t)) + ";");
+                    }
+                }
+                for (int t = 0; t < properties.size(); t++) {
+                    if (!properties.get(t).encoding().isFixed()) {
+                        line(2, String.format(properties.get(t).write(), values.get(t)) + ";");
+                    }
+                }
+                line(2, "return obj;");
+            }
+            line(1, "}");
+            line(0, "}");
+            return source.toString();
+        }
+
+        private static String writeFixed(final Property property, final int offset) {
+            final String value = property.read();
+            return switch (property.encoding()) {
+                case BOOLEAN -> "fixed[" + offset + "] = (byte) (" + value + " ? 1 : 0);";
+                case BYTE -> "fixed[" + offset + "] = " + value + ";";
+                case SHORT -> "ByteArray.shortToBytes(" + value + ", fixed, " + offset + ");";
+                case INT -> "ByteArray.intToBytes(" + value + ", fixed, " + offset + ");";
+                case LONG -> "ByteArray.longToBytes(" + value + ", fixed, " + offset + ");";
+                case FLOAT -> "ByteArray.floatToBytes(" + value + ", fixed, " + offset + ");";
+                case DOUBLE -> "ByteArray.doubleToBytes(" + value + ", fixed, " + offset + ");";
+                default -> throw new IllegalArgumentException(property.encoding().name());
+            };
+        }
+
+        private static String readFixed(final Property property) {
+            return switch (property.encoding()) {
+                case BOOLEAN -> "ba.getBoolean()";
+                case BYTE -> "ba.getByte()";
+                case SHORT -> "ba.getShort()";
+                case INT -> "ba.getInt()";
+                case LONG -> "ba.getLong()";
+                case FLOAT -> "ba.getFloat()";
+                case DOUBLE -> "ba.getDouble()";
+                default -> throw new IllegalArgumentException(property.encoding().name());
+            };
+        }
+
+        private void writeVariable(final Property property) {
+            final String value = property.read();
+            switch (property.encoding()) {
+                case BYTE_ARRAY -> line(2, "ba.addByteArray(" + value + ");");
+                case INT_ARRAY, LONG_ARRAY, FLOAT_ARRAY, DOUBLE_ARRAY -> line(2, "ba.add(" + value + ");");
+                case BOXED, STRING, UUID -> line(2, "ba.addIfNotNull(" + value + ");");
+                case ENUM -> {
+                    line(2, "if (" + value + " != null) {");
+                    line(3, "ba.add(" + value + ".ordinal());");
+                    line(2, "}");
+                }
+                case CEREALIZABLE -> {
+                    line(2, "if (" + value + " != null) {");
+                    line(3, value + ".cerealizeTo(ba);");
+                    line(2, "}");
+                }
+                default -> throw new IllegalArgumentException(property.encoding().name());
+            }
+        }
+
+        private static String readVariable(final Property property) {
+            return switch (property.encoding()) {
+                case BYTE_ARRAY -> "ba.getByteArray()";
+                case INT_ARRAY -> "ba.getIntArray()";
+                case LONG_ARRAY -> "ba.getLongArray()";
+                case FLOAT_ARRAY -> "ba.getFloatArray()";
+                case DOUBLE_ARRAY -> "ba.getDoubleArray()";
+                case BOXED -> "ba.get" + boxedGetter(property.type()) + "()";
+                case STRING -> "ba.getString()";
+                case UUID -> "ba.getUUID()";
+                case ENUM -> enumValues(property) + "[ba.getInt()]";
+                case CEREALIZABLE -> "ba.<" + typeName(property) + ">get(" + typeName(property) + "::new)";
+                default -> throw new IllegalArgumentException(property.encoding().name());
+            };
+        }
+
+        /**
+         * @return the type of the property as it's written in the source, without its type annotations.
+         */
+        private static String typeName(final Property property) {
+            if (property.type().getKind() == TypeKind.DECLARED) {
+                return ((TypeElement) ((DeclaredType) property.type()).asElement()).getQualifiedName().toString();
+            }
+            if (property.type().getKind() == TypeKind.ARRAY) {
+                return ((ArrayType) property.type()).getComponentType().getKind().name().toLowerCase() + "[]";
+            }
+            return property.type().getKind().name().toLowerCase();
+        }
+
+        private static String boxedGetter(final TypeMirror boxedType) {
+            final String simpleName = ((DeclaredType) boxedType).asElement().getSimpleName().toString();
+            return simpleName.equals("Integer") ? "Int" : simpleName;
+        }
+
+        private static String enumValues(final Property property) {
+            return property.name().toUpperCase() + "_VALUES";
+        }
+
+        private void line(final int indent, final String line) {
+            if (!line.isEmpty()) {
+                source.append("    ".repeat(indent)).append(line);
+            }
+            source.append('\n');
+        }
+    }
+
+    private static final class InvalidCerealException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Element element;
+
+        InvalidCerealException(final Element element, final String message) {
+            super(message);
+            this.element = element;
+        }
+    }
+}
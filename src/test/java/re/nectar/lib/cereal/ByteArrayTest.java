@@ -1,7 +1,16 @@
 package re.nectar.lib.cereal;
 
 
+import re.nectar.lib.cereal.cerealizer.DoubleArrayCerealizer;
+import re.nectar.lib.cereal.cerealizer.FloatArrayCerealizer;
+import re.nectar.lib.cereal.cerealizer.FloatCerealizer;
+import re.nectar.lib.cereal.cerealizer.IntArrayCerealizer;
+import re.nectar.lib.cereal.cerealizer.ListCerealizer;
+import re.nectar.lib.cereal.cerealizer.LongArrayCerealizer;
 import re.nectar.lib.cereal.cerealizer.StringCerealizer;
+import re.nectar.lib.cereal.cerealizer.VarIntListCerealizer;
+import re.nectar.lib.cereal.cerealizer.VarIntMapCerealizer;
+import re.nectar.lib.cereal.cerealizer.VarIntStringCerealizer;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
@@ -16,13 +25,19 @@ import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ByteArrayTest {
@@ -222,6 +237,36 @@ public class ByteArrayTest {
     }
 
 
+    @Test
+    @DisplayName("Strings are UTF-8, decoded in place or across chunks")
+    void utf8StringTest() {
+        final String s = "ascii, latin-1 é, and more ‥ \uD83D\uDE00".repeat(10);
+        final ByteArray ba = new ByteArray();
+        ba.add(s);
+        final byte[] bytes = ba.copyAllBytes();
+        assertArrayEquals(s.getBytes(StandardCharsets.UTF_8), Arrays.copyOfRange(bytes, 4, bytes.length));
+        assertEquals(s, ba.getString());
+
+        final ByteArray chunked = new ByteArray();
+        // chunks long enough to be linked rather than copied, so that the String straddles them.
+        for (int offset = 0; offset < bytes.length; offset += 65) {
+            chunked.addRawBytes(bytes, offset, Math.min(65, bytes.length - offset));
+        }
+        assertEquals(s, chunked.getString());
+        assertEquals(0, chunked.length());
+
+        // files written in another charset are read side by side with UTF-8 ones.
+        final ByteArray latin1 = new ByteArray();
+        latin1.setCharset(StandardCharsets.ISO_8859_1);
+        latin1.add("été");
+        final ByteArray copy = new ByteArray(latin1);
+        assertEquals(4 + 3, latin1.length());
+        assertEquals("été", latin1.getString());
+        assertEquals(StandardCharsets.ISO_8859_1, copy.charset());
+        assertEquals("été", copy.getString());
+        assertEquals(StandardCharsets.UTF_8, new ByteArray().charset());
+    }
+
     @Test
     public void binaryStringTest() throws CharacterCodingException {
         int len = 50000;
@@ -634,4 +679,340 @@ public class ByteArrayTest {
 
     }
 
+
+    @Test
+    @DisplayName("primitives written across many tail blocks read back in order")
+    void primitives_across_tail_blocks() {
+        final int count = 100_000;
+        ByteArray ba = new ByteArray();
+        for (int t = 0; t < count; t++) {
+            ba.add(t);
+            ba.add((long) t * 31);
+            ba.add((byte) t);
+        }
+        assertEquals(count * 13, ba.length());
+        for (int t = 0; t < count; t++) {
+            assertEquals(t, ba.getInt());
+            assertEquals((long) t * 31, ba.getLong());
+            assertEquals((byte) t, ba.getByte());
+        }
+        assertEquals(0, ba.length());
+    }
+
+    @Test
+    @DisplayName("primitives and raw bytes interleave without changing the byte order")
+    void primitives_interleaved_with_raw_bytes() {
+        byte[] small = RandUtils.nextByteArray(10);
+        byte[] large = RandUtils.nextByteArray(5000);
+
+        ByteArray ba = new ByteArray();
+        ba.add(1);
+        ba.addRawBytes(small);
+        ba.add(2.5d);
+        ba.addRawBytes(large);
+        ba.add(3.5f);
+
+        byte[] expected = new byte[4 + small.length + 8 + large.length + 4];
+        ByteArray.intToBytes(1, expected, 0);
+        System.arraycopy(small, 0, expected, 4, small.length);
+        ByteArray.doubleToBytes(2.5d, expected, 4 + small.length);
+        System.arraycopy(large, 0, expected, 12 + small.length, large.length);
+        ByteArray.floatToBytes(3.5f, expected, 12 + small.length + large.length);
+
+        assertArrayEquals(expected, new ByteArray(ba).getAllBytes());
+        assertArrayEquals(expected, ba.copyAllBytes());
+        assertArrayEquals(expected, ba.getAllBytes());
+    }
+
+    @Test
+    @DisplayName("a reset ByteArray reuses its tail block without corrupting previous copies")
+    void reset_reuses_tail_block() {
+        ByteArray ba = new ByteArray();
+        ba.add(42L);
+        ByteArray nested = new ByteArray();
+        ba.cerealizeTo(nested);
+        byte[] first = ba.getAllBytes();
+
+        ba.reset();
+        ba.add(-1L);
+
+        ByteArray unnested = new ByteArray();
+        unnested.uncerealizeFrom(nested);
+        assertEquals(42L, unnested.getLong());
+        assertEquals(42L, ByteArray.bytesToLong(first, 0));
+        assertEquals(-1L, ba.getLong());
+    }
+
+    @Test
+    @DisplayName("a reset ByteArray drops a tail block grown by a large object, and keeps the usual ones")
+    void reset_drops_large_tail_block() {
+        ByteArray ba = new ByteArray();
+        ba.add(new int[100_000]);
+        assertTrue(ba.blockCapacity() > 64 * 1024);
+        ba.reset();
+        assertEquals(0, ba.blockCapacity());
+
+        for (int t = 0; t < 1000; t++) {
+            ba.add(t);
+            ba.add("small");
+            final int capacity = ba.blockCapacity();
+            assertTrue(capacity > 0 && capacity <= 64 * 1024);
+            assertEquals(t, ba.getInt());
+            assertEquals("small", ba.getString());
+            ba.reset();
+            assertEquals(capacity, ba.blockCapacity());
+        }
+    }
+
+
+    @Test
+    @DisplayName("values straddling two chunks are read correctly")
+    void values_straddling_chunks() {
+        byte[] bytes = new byte[200];
+        ByteArray.longToBytes(0x0102030405060708L, bytes, 96);
+        ByteArray.intToBytes(-123456, bytes, 104);
+        ByteArray.shortToBytes((short) -2, bytes, 108);
+
+        for (int split = 97; split < 110; split++) {
+            ByteArray ba = new ByteArray();
+            ba.addRawBytes(bytes, 0, split);
+            ba.addRawBytes(bytes, split, bytes.length - split);
+            ba.remove(96);
+            assertEquals(0x0102030405060708L, ba.getLong());
+            assertEquals(-123456, ba.getInt());
+            assertEquals((short) -2, ba.getShort());
+            assertEquals(bytes.length - 110, ba.length());
+        }
+    }
+
+    @Test
+    @DisplayName("reading and writing can be interleaved")
+    void interleaved_reads_and_writes() {
+        ByteArray ba = new ByteArray();
+        for (int t = 0; t < 50_000; t++) {
+            ba.add(t);
+            ba.addRawBytes(RandUtils.nextByteArray(t % 100));
+            ba.add((double) t);
+            assertEquals(t, ba.getInt());
+            ba.remove(t % 100);
+            assertEquals((double) t, ba.getDouble());
+            assertEquals(0, ba.length());
+        }
+    }
+
+
+    @Test
+    @DisplayName("static helpers write big endian bytes")
+    void static_helpers_are_big_endian() {
+        byte[] bytes = new byte[8];
+        ByteArray.longToBytes(0x0102030405060708L, bytes, 0);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, bytes);
+        ByteArray.intToBytes(0xF1F2F3F4, bytes, 1);
+        assertArrayEquals(new byte[]{1, (byte) 0xF1, (byte) 0xF2, (byte) 0xF3, (byte) 0xF4, 6, 7, 8}, bytes);
+        ByteArray.shortToBytes((short) 0x8081, bytes, 6);
+        assertArrayEquals(new byte[]{1, (byte) 0xF1, (byte) 0xF2, (byte) 0xF3, (byte) 0xF4, 6, (byte) 0x80, (byte) 0x81}, bytes);
+
+        assertEquals(0x01F1F2F3F4068081L, ByteArray.bytesToLong(bytes, 0));
+        assertEquals(0xF1F2F3F4, ByteArray.bytesToInt(bytes, 1));
+        assertEquals((short) 0x8081, ByteArray.bytesToShort(bytes, 6));
+
+        // NaNs are canonicalized, as they were with Double.doubleToLongBits
+        ByteArray.doubleToBytes(Double.longBitsToDouble(0x7ff8000000000100L), bytes, 0);
+        assertEquals(0x7ff8000000000000L, ByteArray.bytesToLong(bytes, 0));
+    }
+
+    @Test
+    @DisplayName("batch helpers produce the same bytes as the single value helpers")
+    void batch_helpers() {
+        final int count = 37;
+        int[] ints = new int[count];
+        long[] longs = new long[count];
+        float[] floats = new float[count];
+        double[] doubles = new double[count];
+        for (int t = 0; t < count; t++) {
+            ints[t] = rand.nextInt();
+            longs[t] = rand.nextLong();
+            floats[t] = rand.nextFloat();
+            doubles[t] = rand.nextDouble();
+        }
+
+        byte[] expected = new byte[3 + count * 24];
+        byte[] actual = new byte[expected.length];
+        for (int t = 0; t < count; t++) {
+            ByteArray.intToBytes(ints[t], expected, 3 + t * 4);
+            ByteArray.floatToBytes(floats[t], expected, 3 + count * 4 + t * 4);
+            ByteArray.longToBytes(longs[t], expected, 3 + count * 8 + t * 8);
+            ByteArray.doubleToBytes(doubles[t], expected, 3 + count * 16 + t * 8);
+        }
+        ByteArray.intsToBytes(ints, 0, actual, 3, count);
+        ByteArray.floatsToBytes(floats, 0, actual, 3 + count * 4, count);
+        ByteArray.longsToBytes(longs, 0, actual, 3 + count * 8, count);
+        ByteArray.doublesToBytes(doubles, 0, actual, 3 + count * 16, count);
+        assertArrayEquals(expected, actual);
+
+        int[] intsTest = new int[count + 1];
+        float[] floatsTest = new float[count + 1];
+        long[] longsTest = new long[count + 1];
+        double[] doublesTest = new double[count + 1];
+        ByteArray.bytesToInts(actual, 3, intsTest, 1, count);
+        ByteArray.bytesToFloats(actual, 3 + count * 4, floatsTest, 1, count);
+        ByteArray.bytesToLongs(actual, 3 + count * 8, longsTest, 1, count);
+        ByteArray.bytesToDoubles(actual, 3 + count * 16, doublesTest, 1, count);
+        for (int t = 0; t < count; t++) {
+            assertEquals(ints[t], intsTest[t + 1]);
+            assertEquals(floats[t], floatsTest[t + 1]);
+            assertEquals(longs[t], longsTest[t + 1]);
+            assertEquals(doubles[t], doublesTest[t + 1]);
+        }
+    }
+
+
+    @Test
+    @DisplayName("primitive arrays are added in bulk, with the same bytes as a list, and read back across chunks")
+    void primitive_arrays() {
+        final int count = 1000;
+        final int[] ints = new int[count];
+        final long[] longs = new long[count];
+        final float[] floats = new float[count];
+        final double[] doubles = new double[count];
+        final List<Float> floatList = new ArrayList<>();
+        for (int t = 0; t < count; t++) {
+            ints[t] = rand.nextInt();
+            longs[t] = rand.nextLong();
+            floats[t] = rand.nextFloat();
+            doubles[t] = rand.nextDouble();
+            floatList.add(floats[t]);
+        }
+
+        final ByteArray ba = new ByteArray();
+        ba.add((byte) 7);
+        new IntArrayCerealizer().cerealizeTo(ba, ints);
+        ba.add(longs);
+        new FloatArrayCerealizer().cerealizeTo(ba, floats);
+        ba.add(doubles);
+        ba.add((double[]) null);
+        ba.add(new float[0]);
+        final byte[] bytes = ba.copyAllBytes();
+
+        final ByteArray listBa = new ByteArray();
+        new ListCerealizer<>(new FloatCerealizer()).cerealizeTo(listBa, floatList);
+        assertArrayEquals(listBa.getAllBytes(), Arrays.copyOfRange(bytes, 1 + 4 + count * 4 + 4 + count * 8, 1 + 4 + count * 4 + 4 + count * 8 + 4 + count * 4));
+
+        // odd sized chunks, so that values straddle two chunks.
+        final ByteArray chunked = new ByteArray();
+        for (int offset = 0; offset < bytes.length; offset += 101) {
+            chunked.addRawBytes(bytes, offset, Math.min(101, bytes.length - offset));
+        }
+        assertEquals(7, chunked.getByte());
+        assertArrayEquals(ints, chunked.getIntArray());
+        assertArrayEquals(longs, new LongArrayCerealizer().uncerealizeFrom(chunked));
+        assertArrayEquals(floats, chunked.getFloatArray());
+        assertArrayEquals(doubles, new DoubleArrayCerealizer().uncerealizeFrom(chunked));
+        assertNull(chunked.getDoubleArray());
+        assertArrayEquals(new float[0], chunked.getFloatArray());
+        assertEquals(0, chunked.length());
+    }
+
+    @Test
+    @DisplayName("var ints and ZigZag var ints take as few bytes as their value needs, and are read back across chunks")
+    void var_ints() {
+        final ByteArray ba = new ByteArray();
+        ba.addVarInt(0);
+        ba.addVarInt(127);
+        ba.addVarInt(128);
+        ba.addVarInt(-1);
+        ba.addSignedVarInt(-1);
+        ba.addSignedVarInt(Integer.MIN_VALUE);
+        ba.addVarLong(Long.MIN_VALUE);
+        ba.addSignedVarLong(-64);
+        assertEquals(1 + 1 + 2 + 5 + 1 + 5 + 10 + 1, ba.length());
+        assertEquals(2, ByteArray.varLongSize(300));
+
+        final int count = 1000;
+        final long[] longs = new long[count];
+        for (int t = 0; t < count; t++) {
+            // every size from 1 to 10 bytes.
+            longs[t] = rand.nextLong() >>> rand.nextInt(64);
+            ba.addVarLong(longs[t]);
+            ba.addSignedVarLong(-longs[t]);
+            ba.addSignedVarInt((int) longs[t]);
+        }
+        final byte[] bytes = ba.copyAllBytes();
+
+        final ByteArray chunked = new ByteArray();
+        // chunks long enough to be linked rather than copied, so that var longs straddle them.
+        for (int offset = 0; offset < bytes.length; offset += 67) {
+            chunked.addRawBytes(bytes, offset, Math.min(67, bytes.length - offset));
+        }
+        assertEquals(0, chunked.getVarInt());
+        assertEquals(127, chunked.getVarInt());
+        assertEquals(128, chunked.getVarInt());
+        assertEquals(-1, chunked.getVarInt());
+        assertEquals(-1, chunked.getSignedVarInt());
+        assertEquals(Integer.MIN_VALUE, chunked.getSignedVarInt());
+        assertEquals(Long.MIN_VALUE, chunked.getVarLong());
+        assertEquals(-64, chunked.getSignedVarLong());
+        for (int t = 0; t < count; t++) {
+            assertEquals(longs[t], chunked.getVarLong());
+            assertEquals(-longs[t], chunked.getSignedVarLong());
+            assertEquals((int) longs[t], chunked.getSignedVarInt());
+        }
+        assertEquals(0, chunked.length());
+
+        // ints take 5 bytes at most, whether they are in one chunk or straddle two.
+        final ByteArray tooLarge = new ByteArray();
+        tooLarge.addVarLong(1L << 32);
+        assertThrows(IllegalStateException.class, tooLarge::getVarInt);
+        final byte[] tooLong = new byte[134];
+        Arrays.fill(tooLong, 0, 70, (byte) 0x80);
+        assertThrows(IllegalStateException.class, () -> new ByteArray(tooLong).getVarInt());
+        final ByteArray straddling = new ByteArray();
+        straddling.addRawBytes(tooLong, 0, 67);
+        straddling.addRawBytes(tooLong, 67, 67);
+        straddling.remove(64);
+        assertThrows(IllegalStateException.class, straddling::getVarInt);
+
+        // and the 10th byte of a long only holds its last bit, whether it's in one chunk or straddles two.
+        final byte[] tooLargeLong = new byte[134];
+        Arrays.fill(tooLargeLong, 64, 73, (byte) 0xFF);
+        tooLargeLong[73] = 1;
+        final ByteArray largestLong = new ByteArray(tooLargeLong);
+        largestLong.remove(64);
+        assertEquals(-1L, largestLong.getVarLong());
+        tooLargeLong[73] = 2;
+        final ByteArray inPlace = new ByteArray(tooLargeLong);
+        inPlace.remove(64);
+        assertThrows(IllegalStateException.class, inPlace::getVarLong);
+        final ByteArray straddlingLong = new ByteArray();
+        straddlingLong.addRawBytes(tooLargeLong, 0, 67);
+        straddlingLong.addRawBytes(tooLargeLong, 67, 67);
+        straddlingLong.remove(64);
+        assertThrows(IllegalStateException.class, straddlingLong::getVarLong);
+    }
+
+    @Test
+    @DisplayName("var int prefixed Strings, lists and maps")
+    void var_int_prefixes() {
+        final ByteArray ba = new ByteArray();
+        final VarIntStringCerealizer stringCerealizer = new VarIntStringCerealizer();
+        stringCerealizer.cerealizeTo(ba, "abc");
+        stringCerealizer.cerealizeTo(ba, null);
+        stringCerealizer.cerealizeTo(ba, "");
+        assertEquals(1 + 3 + 1 + 1, ba.length());
+        assertEquals("abc", stringCerealizer.uncerealizeFrom(ba));
+        assertNull(stringCerealizer.uncerealizeFrom(ba));
+        assertEquals("", stringCerealizer.uncerealizeFrom(ba));
+
+        final VarIntListCerealizer<String> listCerealizer = new VarIntListCerealizer<>(stringCerealizer);
+        final List<String> list = List.of("a", "bb", "ccc");
+        listCerealizer.cerealizeTo(ba, list);
+        assertEquals(1 + 2 + 3 + 4, ba.length());
+        assertEquals(list, listCerealizer.uncerealizeFrom(ba));
+
+        final VarIntMapCerealizer<String, List<String>> mapCerealizer = new VarIntMapCerealizer<>(stringCerealizer, listCerealizer);
+        final Map<String, List<String>> map = Map.of("x", list, "y", List.of());
+        mapCerealizer.cerealizeTo(ba, map);
+        assertEquals(map, mapCerealizer.uncerealizeFrom(ba));
+        assertEquals(0, ba.length());
+    }
 }
@@ -1,10 +1,20 @@
 package re.nectar.lib.cereal;
 
+import re.nectar.lib.cereal.cerealizer.CerealizableCerealizer;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class CerealCollectionTest {
 
@@ -83,6 +93,94 @@ public class CerealCollectionTest {
 
     }
 
+    @DisplayName("Loading / unloading with constructor references")
+    @Test
+    void loadUnloadWithFactoriesTest() {
+        final ConverterTest converterTest = new ConverterTest();
+
+        CerealMap<CerealLong, Forecast> timestampMap = new CerealMap<>(CerealLong::new, Forecast::new);
+        CerealList<Forecast> forecastList = new CerealList<>(Forecast::new);
+        for (int t = 0; t < iterations; t++) {
+            final Forecast randomForecast = converterTest.getRandomForecast(true);
+            final CerealLong cerealLong = new CerealLong();
+            cerealLong.setValue(randomForecast.getTimestamp());
+            timestampMap.put(cerealLong, randomForecast);
+            forecastList.add(randomForecast);
+        }
+
+        final ByteArray byteArray = new ByteArray();
+        timestampMap.cerealizeTo(byteArray);
+        forecastList.cerealizeTo(byteArray);
+
+        CerealMap<CerealLong, Forecast> timestampMap2 = new CerealMap<>(CerealLong::new, Forecast::new);
+        timestampMap2.uncerealizeFrom(byteArray);
+        CerealList<Forecast> forecastList2 = new CerealList<>(Forecast::new);
+        forecastList2.uncerealizeFrom(byteArray);
+
+        assertEquals(timestampMap, timestampMap2);
+        assertIterableEquals(forecastList, forecastList2);
+    }
+
+    @DisplayName("Cereal factories")
+    @Test
+    void factoryTest() throws IOException, ClassNotFoundException {
+        assertSame(CerealFactory.of(CerealLong.class), CerealFactory.of(CerealLong.class));
+        assertEquals(CerealLong.class, CerealFactory.of(CerealLong.class).get().getClass());
+        assertThrows(IllegalArgumentException.class, () -> CerealFactory.of(Cerealizable.class));
+        assertThrows(IllegalArgumentException.class, () -> CerealFactory.of(NoDefaultConstructor.class));
+        // constructor exceptions are not wrapped.
+        assertThrows(IllegalStateException.class, () -> CerealFactory.of(FailingConstructor.class).get());
+        // a public class of a package that isn't opened to us is built through its public constructor.
+        assertEquals(new ArrayList<>(), CerealFactory.of(ArrayList.class).get());
+
+        // collections only need a factory once they uncerealize.
+        final CerealList<NoDefaultConstructor> list = new CerealList<>(NoDefaultConstructor.class);
+        list.add(new NoDefaultConstructor(1));
+        final ByteArray byteArray = new ByteArray();
+        list.cerealizeTo(byteArray);
+        assertThrows(IllegalArgumentException.class, () -> new CerealList<>(NoDefaultConstructor.class).uncerealizeFrom(byteArray));
+        // and so does the cerealizer.
+        final CerealizableCerealizer<NoDefaultConstructor> cerealizer = new CerealizableCerealizer<>(NoDefaultConstructor.class);
+        cerealizer.cerealizeTo(byteArray, new NoDefaultConstructor(2));
+        assertThrows(IllegalArgumentException.class, () -> cerealizer.uncerealizeFrom(byteArray));
+
+        // the factories are not part of the Java serialization of the collections.
+        final CerealList<CerealLong> longs = new CerealList<>(CerealLong::new);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(longs);
+            oos.writeObject(new CerealMap<>(CerealLong::new, CerealLong::new));
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            assertEquals(longs, ois.readObject());
+        }
+    }
+
+    static class NoDefaultConstructor implements Cerealizable {
+        private int value;
+
+        NoDefaultConstructor(final int value) {
+            this.value = value;
+        }
+
+        @Override
+        public void cerealizeTo(final ByteArray ba) {
+            ba.add(value);
+        }
+
+        @Override
+        public void uncerealizeFrom(final ByteArray ba) {
+            value = ba.getInt();
+        }
+    }
+
+    static class FailingConstructor extends NoDefaultConstructor {
+        FailingConstructor() {
+            super(0);
+            throw new IllegalStateException();
+        }
+    }
+
     static class CerealLong implements Cerealizable {
         private long getValue() {
             return value;
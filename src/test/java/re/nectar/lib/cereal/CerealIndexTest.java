@@ -0,0 +1,105 @@
+package re.nectar.lib.cereal;
+
+import re.nectar.lib.cereal.cerealizer.CerealizableCerealizer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CerealIndexTest {
+
+    public static final int iterations = 1000;
+    final ConverterTest converterTest = new ConverterTest();
+
+    @TempDir
+    File testDataTempDir;
+
+    @Test
+    @DisplayName("openAt positions a stream on any object of an indexed file")
+    void open_at() throws IOException, InstantiationException, IllegalAccessException {
+        final Path dataFile = testDataTempDir.toPath().resolve("forecasts.cereal");
+        final Path indexFile = CerealIndex.sidecarOf(dataFile);
+        final List<Forecast> forecasts = new ArrayList<>();
+        final long[] offsets = new long[iterations];
+        try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(dataFile.toFile()),
+                new FileOutputStream(indexFile.toFile()), 16)) {
+            for (int t = 0; t < iterations; t++) {
+                final Forecast forecast = converterTest.getRandomForecast(true);
+                forecasts.add(forecast);
+                offsets[t] = cos.position();
+                cos.write(forecast);
+            }
+        }
+        assertEquals(indexFile.getFileName().toString(), "forecasts.cereal.idx");
+        assertEquals(Files.size(dataFile), offsets[iterations - 1] + 4 + ByteArray.cerealToByteArray(forecasts.get(iterations - 1)).length);
+
+        final CerealIndex index = CerealIndex.read(indexFile);
+        assertEquals(16, index.interval());
+        assertEquals(iterations, index.count());
+
+        for (final int objectNumber : new int[]{0, 1, 15, 16, 17, 500, iterations - 1}) {
+            assertEquals(offsets[objectNumber - objectNumber % 16], index.indexedOffset(objectNumber));
+            try (CerealInputStream cis = index.openAt(dataFile, objectNumber)) {
+                assertEquals(Optional.of(forecasts.get(objectNumber)), cis.read(Forecast.class));
+                if (objectNumber + 1 < iterations) {
+                    assertEquals(Optional.of(forecasts.get(objectNumber + 1)), cis.read(Forecast.class));
+                }
+            }
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> index.openAt(dataFile, iterations));
+
+        // the mapped reader agrees with the index
+        try (MappedCerealFile mcf = new MappedCerealFile(dataFile)) {
+            final MappedCerealFile.Cursor cursor = mcf.cursor(index.indexedOffset(500));
+            for (int t = index.objectsToSkip(500); t >= 0; t--) {
+                assertTrue(cursor.next());
+            }
+            assertEquals(forecasts.get(500), cursor.read(new CerealizableCerealizer<>(Forecast.class)));
+        }
+    }
+
+    @Test
+    @DisplayName("no index is written when the data file fails to close")
+    void failed_close() {
+        final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        final IOException failure = assertThrows(IOException.class, () -> {
+            try (CerealOutputStream cos = new CerealOutputStream(new ByteArrayOutputStream() {
+                @Override
+                public void close() throws IOException {
+                    throw new IOException("disk full");
+                }
+            }, indexBytes, 16)) {
+                cos.write(converterTest.getRandomForecast(true));
+            }
+        });
+        assertEquals("disk full", failure.getMessage());
+        assertEquals(0, indexBytes.size());
+    }
+
+    @Test
+    @DisplayName("a corrupted offset count is rejected before anything is allocated")
+    void corrupted_count() {
+        for (final int offsetCount : new int[]{-1, Integer.MAX_VALUE, 3}) {
+            final ByteArray ba = new ByteArray();
+            ba.add(16);
+            ba.add(40L);
+            ba.add(offsetCount);
+            ba.addVarLong(0);
+            ba.addVarLong(100);
+            assertThrows(IllegalStateException.class, () -> ba.uncerealize(CerealIndex.class));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package re.nectar.lib.cereal;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CerealKeyTest {
+
+    @Test
+    @DisplayName("float and double keys order values like Float.compare and Double.compare")
+    void floating_point_order() {
+        final float[] floats = {Float.NEGATIVE_INFINITY, -1e30f, -1f, -Float.MIN_VALUE, -0f, 0f, Float.MIN_VALUE, 1f,
+                                1e30f, Float.POSITIVE_INFINITY, Float.NaN};
+        final CerealKey floatKey = CerealKey.floatAt(2);
+        final CerealKey doubleKey = CerealKey.doubleAt(2);
+        for (int t = 1; t < floats.length; t++) {
+            assertTrue(keyOf(floatKey, floats[t - 1]) < keyOf(floatKey, floats[t]), "float " + floats[t]);
+            assertTrue(keyOf(doubleKey, (double) floats[t - 1]) < keyOf(doubleKey, (double) floats[t]), "double " + floats[t]);
+        }
+    }
+
+    @Test
+    @DisplayName("bytes keys order objects by unsigned bytes, and pad short objects with zeros")
+    void bytes_order() {
+        final CerealKey key = CerealKey.bytesAt(1, 3);
+        assertTrue(key.keyOf(new byte[]{9, 0x01, 0x02, 0x03}, 0, 4) < key.keyOf(new byte[]{0, 0x01, 0x02, (byte) 0xFF}, 0, 4));
+        assertTrue(key.keyOf(new byte[]{9, 0x7F}, 0, 2) < key.keyOf(new byte[]{0, (byte) 0x80}, 0, 2));
+        assertEquals(key.keyOf(new byte[]{9, 0x01}, 0, 2), key.keyOf(new byte[]{0, 0x01, 0x00, 0x00, 0x42}, 0, 5));
+        assertThrows(IllegalArgumentException.class, () -> CerealKey.bytesAt(0, 9));
+    }
+
+    @Test
+    @DisplayName("fixed size keys read the field at its offset in the object, not in the array")
+    void offsets() {
+        final ByteArray ba = new ByteArray();
+        ba.add((byte) 1);
+        ba.add((byte) 2);
+        ba.add(-42);
+        ba.add(Long.MAX_VALUE);
+        final byte[] bytes = ba.getAllBytes();
+        assertEquals(-42, CerealKey.intAt(0).keyOf(bytes, 2, 12));
+        assertEquals(Long.MAX_VALUE, CerealKey.longAt(4).keyOf(bytes, 2, 12));
+        assertThrows(IllegalArgumentException.class, () -> CerealKey.longAt(6).keyOf(bytes, 2, 12));
+    }
+
+    private static long keyOf(final CerealKey key, final float value) {
+        final ByteArray ba = new ByteArray();
+        ba.add((short) 0);
+        ba.add(value);
+        final byte[] bytes = ba.getAllBytes();
+        return key.keyOf(bytes, 0, bytes.length);
+    }
+
+    private static long keyOf(final CerealKey key, final double value) {
+        final ByteArray ba = new ByteArray();
+        ba.add((short) 0);
+        ba.add(value);
+        final byte[] bytes = ba.getAllBytes();
+        return key.keyOf(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,200 @@
+package re.nectar.lib.cereal;
+
+import re.nectar.lib.cereal.cerealizer.RecordCerealizer;
+import re.nectar.lib.cereal.processor.CerealProcessor;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CerealProcessorTest {
+
+    final ConverterTest converterTest = new ConverterTest();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("the generated cerealizer writes the same bytes as the hand written code")
+    void generated_forecast() {
+        final ForecastCerealizer cerealizer = new ForecastCerealizer();
+        for (int t = 0; t < 100; t++) {
+            final Forecast forecast = converterTest.getRandomForecast(t % 2 == 0);
+            final ByteArray generated = new ByteArray();
+            cerealizer.cerealizeTo(generated, forecast);
+            assertArrayEquals(ByteArray.cerealToByteArray(forecast), generated.copyAllBytes());
+
+            assertEquals(forecast, cerealizer.uncerealizeFrom(generated));
+            assertEquals(0, generated.length());
+        }
+    }
+
+    @Test
+    @DisplayName("records, getters and setters, superclass fields and nulls")
+    void generated_types() {
+        final Reading reading = new Reading("station", 42L, 1.5, new float[]{1f, 2f}, Level.HIGH,
+                UUID.randomUUID(), true, (byte) 3, new CerealUUID(UUID.randomUUID()));
+        final ByteArray ba = new ByteArray();
+        final CerealProcessorTest_ReadingCerealizer readingCerealizer = new CerealProcessorTest_ReadingCerealizer();
+        readingCerealizer.cerealizeTo(ba, reading);
+        final Reading nulls = new Reading(null, 0, null, null, null, null, false, (byte) 0, null);
+        readingCerealizer.cerealizeTo(ba, nulls);
+
+        assertEquals(reading, readingCerealizer.uncerealizeFrom(ba));
+        assertEquals(nulls, readingCerealizer.uncerealizeFrom(ba));
+
+        // the runtime RecordCerealizer has the same layout.
+        final ByteArray generated = new ByteArray();
+        readingCerealizer.cerealizeTo(generated, reading);
+        final ByteArray runtime = new ByteArray();
+        RecordCerealizer.of(Reading.class).cerealizeTo(runtime, reading);
+        assertArrayEquals(generated.copyAllBytes(), runtime.copyAllBytes());
+
+        final Station station = new Station();
+        station.name = "name";
+        station.setAltitude(1200);
+        station.setTags(new long[]{5, 6});
+        station.cache = "not cerealized";
+        final CerealProcessorTest_StationCerealizer stationCerealizer = new CerealProcessorTest_StationCerealizer();
+        stationCerealizer.cerealizeTo(ba, station);
+        final Station station2 = stationCerealizer.uncerealizeFrom(ba);
+        assertEquals("name", station2.name);
+        assertEquals(1200, station2.getAltitude());
+        assertArrayEquals(new long[]{5, 6}, station2.getTags());
+        assertNull(station2.cache);
+        assertEquals(0, ba.length());
+    }
+
+    @Test
+    @DisplayName("unsupported fields are compile errors")
+    void compile_errors() {
+        final List<Diagnostic<? extends JavaFileObject>> errors = compile("""
+                package test;
+                @re.nectar.lib.cereal.Cereal
+                class Invalid {
+                    java.util.List<String> names;
+                    private int hidden;
+                }
+                """);
+        assertEquals(2, errors.size());
+        assertTrue(errors.get(0).getMessage(null).contains("names has an unsupported type"));
+        assertTrue(errors.get(1).getMessage(null).contains("hidden must be visible"));
+
+        assertFalse(compile("""
+                package test;
+                @re.nectar.lib.cereal.Cereal
+                record Valid(int a, String b) {
+                }
+                """).stream().findAny().isPresent());
+
+        final List<Diagnostic<? extends JavaFileObject>> hiding = compile("""
+                package test;
+                class Base {
+                    int id;
+                    transient String label;
+                }
+                @re.nectar.lib.cereal.Cereal
+                class Hiding extends Base {
+                    long id;
+                    String label;
+                }
+                """);
+        assertEquals(1, hiding.size());
+        assertTrue(hiding.get(0).getMessage(null).contains("id hides the field of test.Base"));
+    }
+
+    private List<Diagnostic<? extends JavaFileObject>> compile(final String source) {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///test/Source.java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        final String classpath = new File(Cereal.class.getProtectionDomain().getCodeSource().getLocation().getPath()).getPath();
+        final JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics,
+                List.of("-proc:only", "-classpath", classpath, "-s", tempDir.toString()), null, List.of(file));
+        task.setProcessors(List.of(new CerealProcessor()));
+        task.call();
+        return diagnostics.getDiagnostics().stream().filter(d -> d.getKind() == Diagnostic.Kind.ERROR).toList();
+    }
+
+    enum Level {
+        LOW, HIGH
+    }
+
+    @Cereal
+    record Reading(String station, long time, Double value, float[] samples, Level level, UUID id, boolean flag, byte b,
+                   CerealUUID cerealUUID) {
+
+        // compares samples by content, and so every component.
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Reading r && Objects.equals(station, r.station) && time == r.time
+                    && Objects.equals(value, r.value) && Arrays.equals(samples, r.samples) && level == r.level
+                    && Objects.equals(id, r.id) && flag == r.flag && b == r.b && Objects.equals(cerealUUID, r.cerealUUID);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(station, time, value, Arrays.hashCode(samples), level, id, flag, b, cerealUUID);
+        }
+    }
+
+    static class Site {
+        String name;
+    }
+
+    @Cereal
+    static class Station extends Site {
+        private int altitude;
+        private long[] tags;
+        transient String cache;
+
+        int getAltitude() {
+            return altitude;
+        }
+
+        void setAltitude(final int altitude) {
+            this.altitude = altitude;
+        }
+
+        long[] getTags() {
+            return tags;
+        }
+
+        void setTags(final long[] tags) {
+            this.tags = tags;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Station station && Objects.equals(name, station.name) && altitude == station.altitude;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, altitude);
+        }
+    }
+}
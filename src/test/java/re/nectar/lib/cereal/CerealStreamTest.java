@@ -0,0 +1,164 @@
+package re.nectar.lib.cereal;
+
+import re.nectar.lib.cereal.cerealizer.DictionaryStringCerealizer;
+import re.nectar.lib.cereal.cerealizer.LocaleCerealizer;
+import re.nectar.lib.cereal.cerealizer.StringCerealizer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CerealStreamTest {
+
+    public static final int iterations = 2000;
+    final ConverterTest converterTest = new ConverterTest();
+
+    @Test
+    @DisplayName("objects are written as a length followed by their cerealized bytes")
+    void output_stream_format() throws IOException {
+        final Forecast forecast = converterTest.getRandomForecast(true);
+        final byte[] cerealized = ByteArray.cerealToByteArray(forecast);
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (CerealOutputStream cos = new CerealOutputStream(baos)) {
+            cos.write(forecast);
+            cos.write(forecast);
+        }
+
+        final ByteArray expected = new ByteArray();
+        expected.add(cerealized.length);
+        expected.addRawBytes(cerealized);
+        expected.add(cerealized.length);
+        expected.addRawBytes(cerealized);
+        assertArrayEquals(expected.getAllBytes(), baos.toByteArray());
+    }
+
+    @Test
+    @DisplayName("objects of varying sizes survive a round trip through the streams")
+    void round_trip() throws IOException, InstantiationException, IllegalAccessException {
+        final List<Forecast> forecasts = new ArrayList<>();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (CerealOutputStream cos = new CerealOutputStream(baos)) {
+            for (int t = 0; t < iterations; t++) {
+                final Forecast forecast = converterTest.getRandomForecast(true);
+                forecasts.add(forecast);
+                cos.write(forecast);
+                cos.write(new CerealBytes(RandUtils.nextByteArray(RandUtils.nextInt(0, 100_000))));
+            }
+        }
+
+        try (CerealInputStream cis = new CerealInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            for (final Forecast forecast : forecasts) {
+                assertEquals(Optional.of(forecast), cis.read(Forecast.class));
+                cis.read(CerealBytes.class);
+            }
+            assertEquals(Optional.empty(), cis.read(Forecast.class));
+        }
+    }
+
+    @Test
+    @DisplayName("objects larger than the read buffer or spanning a refill are read correctly")
+    void small_read_buffer() throws IOException, InstantiationException, IllegalAccessException {
+        final List<Forecast> forecasts = new ArrayList<>();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (CerealOutputStream cos = new CerealOutputStream(baos)) {
+            for (int t = 0; t < iterations; t++) {
+                final Forecast forecast = converterTest.getRandomForecast(true);
+                forecasts.add(forecast);
+                cos.write(forecast);
+            }
+        }
+
+        try (CerealInputStream cis = new CerealInputStream(new ByteArrayInputStream(baos.toByteArray()), 150)) {
+            for (final Forecast forecast : forecasts) {
+                assertEquals(0, cis.skip(-1));
+                assertEquals(Optional.of(forecast), cis.read(Forecast.class));
+            }
+            assertEquals(baos.size(), cis.position());
+            assertEquals(Optional.empty(), cis.read(Forecast.class));
+        }
+    }
+
+    @Test
+    @DisplayName("a stream reads and writes its Strings in its own charset")
+    void charset() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (CerealOutputStream cos = new CerealOutputStream(baos)) {
+            cos.setCharset(StandardCharsets.ISO_8859_1);
+            cos.write(new CerealString("été"));
+        }
+        assertEquals(4 + 4 + 3, baos.size());
+
+        try (CerealInputStream cis = new CerealInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            cis.setCharset(StandardCharsets.ISO_8859_1);
+            assertEquals(new CerealString("été"), cis.read(CerealString::new).orElseThrow());
+        }
+        // raw objects keep the charset of the stream.
+        try (CerealInputStream cis = new CerealInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            cis.setCharset(StandardCharsets.ISO_8859_1);
+            assertEquals("été", cis.readRawObject().getString());
+        }
+    }
+
+    @Test
+    @DisplayName("in dictionary mode, the Strings of all objects are written once and read back as one instance")
+    void string_dictionary() throws IOException {
+        final LocaleCerealizer localeCerealizer = new LocaleCerealizer();
+        final List<Locale> locales = new ArrayList<>();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ByteArrayOutputStream fullBaos = new ByteArrayOutputStream();
+        try (CerealOutputStream cos = new CerealOutputStream(baos);
+             CerealOutputStream full = new CerealOutputStream(fullBaos)) {
+            cos.setStringDictionary(new DictionaryStringCerealizer());
+            // an object that fails after writing a new String leaves the ids of the stream as they were.
+            assertThrows(IllegalStateException.class, () -> cos.write(new StringCerealizer() {
+                @Override
+                public void cerealizeTo(final ByteArray ba, final String obj) {
+                    super.cerealizeTo(ba, obj);
+                    throw new IllegalStateException();
+                }
+            }, "never written"));
+            for (int t = 0; t < iterations; t++) {
+                final Locale locale = Locale.getAvailableLocales()[RandUtils.nextInt(0, 20)];
+                locales.add(locale);
+                cos.write(localeCerealizer, locale);
+                full.write(localeCerealizer, locale);
+                final CerealString name = new CerealString(locale.getDisplayName(Locale.ENGLISH).repeat(t % 3 == 0 ? 50 : 1));
+                cos.write(name);
+                full.write(name);
+            }
+        }
+        assertTrue(baos.size() < fullBaos.size());
+
+        // a small buffer, so that some objects are read from a copy rather than from the buffer.
+        try (CerealInputStream cis = new CerealInputStream(new ByteArrayInputStream(baos.toByteArray()), 150)) {
+            cis.setStringDictionary(new DictionaryStringCerealizer());
+            final Map<String, String> names = new HashMap<>();
+            for (int t = 0; t < iterations; t++) {
+                assertEquals(Optional.of(locales.get(t)), cis.read(localeCerealizer));
+                final String name = cis.read(CerealString::new).orElseThrow().getValue();
+                assertEquals(locales.get(t).getDisplayName(Locale.ENGLISH).repeat(t % 3 == 0 ? 50 : 1), name);
+                assertSame(names.computeIfAbsent(name, n -> name), name);
+            }
+            assertEquals(Optional.empty(), cis.read(localeCerealizer));
+            assertThrows(IllegalStateException.class, cis::skipRawObject);
+            assertThrows(IllegalStateException.class, cis::readRawObject);
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package re.nectar.lib.cereal;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeflatedBlockStreamTest {
+
+    @Test
+    @DisplayName("compressible and incompressible blocks survive a round trip")
+    void round_trip() throws IOException {
+        final byte[] compressible = new byte[10_000];
+        Arrays.fill(compressible, (byte) 42);
+        final byte[] random = RandUtils.nextByteArray(10_000);
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DeflatedBlockOutputStream out = new DeflatedBlockOutputStream(baos, 4096)) {
+            out.write(compressible);
+            out.write(7);
+            out.write(random, 0, random.length);
+        }
+        // random bytes are stored as they are, plus a header per block.
+        assertTrue(baos.size() < random.length + 1000, "" + baos.size());
+
+        final byte[] expected = new byte[compressible.length + 1 + random.length];
+        System.arraycopy(compressible, 0, expected, 0, compressible.length);
+        expected[compressible.length] = 7;
+        System.arraycopy(random, 0, expected, compressible.length + 1, random.length);
+        try (DeflatedBlockInputStream in = new DeflatedBlockInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            assertArrayEquals(expected, in.readAllBytes());
+            assertEquals(-1, in.read());
+        }
+    }
+}
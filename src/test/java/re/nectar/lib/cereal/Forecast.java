@@ -1,5 +1,6 @@
 package re.nectar.lib.cereal;
 
+@Cereal
 public class Forecast implements Cerealizable {
     /**
      * The latitude (north is positive, south is negative) of this forecast's
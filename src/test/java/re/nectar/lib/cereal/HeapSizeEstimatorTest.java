@@ -0,0 +1,43 @@
+package re.nectar.lib.cereal;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HeapSizeEstimatorTest {
+
+    final ConverterTest converterTest = new ConverterTest();
+
+    @Test
+    @DisplayName("arrays and plain objects are measured field by field")
+    void deep_size() {
+        final SamplingHeapSizeEstimator<Object> estimator = new SamplingHeapSizeEstimator<>();
+        assertEquals(16 + 80, estimator.deepSizeOf(new long[10]));
+        assertEquals(16 + 8, estimator.deepSizeOf(new byte[3]));
+        // a Float is a header and a float, the array holds 2 references to the same Float.
+        final Float f = 1f;
+        assertEquals(16 + 8 + 16, estimator.deepSizeOf(new Float[]{f, f}));
+        // a Tuple of two references, pointing to two Floats.
+        assertEquals(24 + 16 + 16, estimator.deepSizeOf(new Tuple<>(1f, 2f)));
+        assertTrue(estimator.deepSizeOf(List.of("a", "b", "c")) > 3 * 24);
+    }
+
+    @Test
+    @DisplayName("the sampling estimator scales the measured objects to the others")
+    void sampling() {
+        final HeapSizeEstimator<Forecast> estimator = HeapSizeEstimator.sampling();
+        final SamplingHeapSizeEstimator<Object> measure = new SamplingHeapSizeEstimator<>();
+        long estimated = 0;
+        long measured = 0;
+        for (int t = 0; t < 1000; t++) {
+            final Forecast forecast = converterTest.getRandomForecast(true);
+            estimated += estimator.estimate(forecast, ByteArray.cerealToByteArray(forecast).length);
+            measured += measure.deepSizeOf(forecast);
+        }
+        assertTrue(Math.abs(estimated - measured) < measured / 10, estimated + " vs " + measured);
+    }
+}
@@ -0,0 +1,70 @@
+package re.nectar.lib.cereal;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class LoserTreeTest {
+
+    // compare on the tens only, so there are lots of ties
+    private static final Comparator<Integer> comparator = Comparator.comparingInt(i -> i / 10);
+
+    @Test
+    @DisplayName("merging sorted sources is a stable sort of their concatenation")
+    void merge() throws IOException {
+        final Random random = new Random();
+        for (final int k : new int[]{1, 2, 3, 5, 8, 13, 100}) {
+            final List<List<Integer>> runs = new ArrayList<>();
+            final List<Integer> expected = new ArrayList<>();
+            for (int t = 0; t < k; t++) {
+                final List<Integer> run = new ArrayList<>();
+                for (int u = random.nextInt(50); u > 0; u--) {
+                    run.add(random.nextInt(500));
+                }
+                run.sort(comparator);
+                runs.add(run);
+                expected.addAll(run);
+            }
+            expected.sort(comparator);
+
+            final LoserTree<Integer> tree = new LoserTree<>(sources(runs), comparator);
+            final List<Integer> merged = new ArrayList<>();
+            while (tree.hasNext()) {
+                final Integer peeked = tree.peek();
+                final Integer next = tree.next();
+                assertEquals(peeked, next);
+                merged.add(next);
+            }
+            assertEquals(expected, merged);
+            assertNull(tree.next());
+        }
+    }
+
+    @Test
+    @DisplayName("a tree without sources or with only empty sources is empty")
+    void empty() throws IOException {
+        assertFalse(new LoserTree<>(sources(List.of()), comparator).hasNext());
+        final LoserTree<Integer> tree = new LoserTree<>(sources(List.of(List.of(), List.of())), comparator);
+        assertFalse(tree.hasNext());
+        assertNull(tree.peek());
+    }
+
+    private static List<LoserTree.Source<Integer>> sources(final List<List<Integer>> runs) {
+        final List<LoserTree.Source<Integer>> sources = new ArrayList<>();
+        for (final List<Integer> run : runs) {
+            final Iterator<Integer> iterator = run.iterator();
+            sources.add(() -> iterator.hasNext() ? iterator.next() : null);
+        }
+        return sources;
+    }
+}
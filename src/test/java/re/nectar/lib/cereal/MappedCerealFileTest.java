@@ -0,0 +1,124 @@
+package re.nectar.lib.cereal;
+
+import re.nectar.lib.cereal.cerealizer.CerealizableCerealizer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MappedCerealFileTest {
+
+    @TempDir File testDataTempDir;
+
+    public static final int iterations = 2000;
+    final ConverterTest converterTest = new ConverterTest();
+
+    private List<Forecast> writeForecasts(final Path file) throws IOException {
+        final List<Forecast> forecasts = new ArrayList<>();
+        try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(file.toFile()))) {
+            for (int t = 0; t < iterations; t++) {
+                final Forecast forecast = converterTest.getRandomForecast(true);
+                forecasts.add(forecast);
+                cos.write(forecast);
+            }
+        }
+        return forecasts;
+    }
+
+    @Test
+    @DisplayName("iterating over a file mapped in many small segments returns every object")
+    void iterate_over_segments() throws IOException {
+        final Path file = testDataTempDir.toPath().resolve("mapped.cereal");
+        final List<Forecast> forecasts = writeForecasts(file);
+
+        // segments much smaller than the objects, so that lengths and objects straddle segments.
+        try (MappedCerealFile mapped = new MappedCerealFile(file, 101)) {
+            final Iterator<Forecast> iterator = mapped.iterator(new CerealizableCerealizer<>(Forecast.class));
+            for (final Forecast forecast : forecasts) {
+                assertTrue(iterator.hasNext());
+                assertEquals(forecast, iterator.next());
+            }
+            assertFalse(iterator.hasNext());
+        }
+    }
+
+    @Test
+    @DisplayName("a cursor exposes the cerealized bytes of each object")
+    void cursor_buffers() throws IOException {
+        final Path file = testDataTempDir.toPath().resolve("mapped.cereal");
+        final List<Forecast> forecasts = writeForecasts(file);
+
+        try (MappedCerealFile mapped = new MappedCerealFile(file, 4096)) {
+            final MappedCerealFile.Cursor cursor = mapped.cursor();
+            long position = 0;
+            for (final Forecast forecast : forecasts) {
+                assertTrue(cursor.next());
+                final byte[] expected = ByteArray.cerealToByteArray(forecast);
+                assertEquals(position, cursor.position());
+                assertEquals(expected.length, cursor.length());
+
+                final ByteBuffer buffer = cursor.buffer();
+                final byte[] actual = new byte[buffer.remaining()];
+                buffer.get(actual);
+                assertArrayEquals(expected, actual);
+                assertArrayEquals(expected, cursor.byteArray().getAllBytes());
+                position += 4 + expected.length;
+            }
+            assertFalse(cursor.next());
+            assertEquals(position, mapped.size());
+        }
+    }
+
+    @Test
+    @DisplayName("a corrupted file or a closed one are reported as such")
+    void corrupted_and_closed() throws IOException {
+        final Path file = testDataTempDir.toPath().resolve("mapped.cereal");
+        final List<Forecast> forecasts = writeForecasts(file);
+        final long size = Files.size(file);
+
+        final MappedCerealFile mapped = new MappedCerealFile(file);
+        final Iterator<Forecast> iterator = mapped.iterator(new CerealizableCerealizer<>(Forecast.class));
+        final MappedCerealFile.Cursor cursor = mapped.cursor();
+        assertTrue(cursor.next());
+        mapped.close();
+        assertThrows(IllegalStateException.class, iterator::next);
+        assertThrows(IllegalStateException.class, cursor::next);
+        assertThrows(IllegalStateException.class, cursor::buffer);
+
+        // the last object is cut short.
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 1);
+        }
+        try (MappedCerealFile truncated = new MappedCerealFile(file)) {
+            final MappedCerealFile.Cursor truncatedCursor = truncated.cursor();
+            for (int t = 0; t < forecasts.size() - 1; t++) {
+                assertTrue(truncatedCursor.next());
+            }
+            assertThrows(UncheckedIOException.class, truncatedCursor::next);
+        }
+
+        // a negative length.
+        Files.write(file, new byte[]{-1, -1, -1, -1, 0});
+        try (MappedCerealFile negative = new MappedCerealFile(file)) {
+            assertThrows(UncheckedIOException.class, () -> negative.cursor().next());
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package re.nectar.lib.cereal;
 
+import re.nectar.lib.cereal.cerealizer.CerealizableCerealizer;
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -11,12 +14,21 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class SorterTest {
@@ -80,6 +92,546 @@ public class SorterTest {
     }
 
 
+    @Test
+    @DisplayName("parallel sorting produces the same bytes as sequential sorting, ties included")
+    void parallelSortTest() throws IOException, IllegalAccessException, InstantiationException {
+        final Path inputFile = testDataTempDir.toPath().resolve("sorter_input.cereal");
+        final Path sequentialFile = testDataTempDir.toPath().resolve("sorter_sequential.cereal");
+        final Path parallelFile = testDataTempDir.toPath().resolve("sorter_parallel.cereal");
+
+        try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(inputFile.toFile()))) {
+            for (int t = 0; t < iterations; t++) {
+                cos.write(converterTest.getRandomForecast(true));
+            }
+        }
+
+        // only 3 distinct data sources, so most comparisons are ties.
+        final Comparator<Forecast> comparator = Comparator.comparingInt(Forecast::getDataSource);
+        new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), comparator)
+                .sort(inputFile, sequentialFile);
+
+        final CerealFileSorter<Forecast> parallelSorter =
+                new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), comparator);
+        parallelSorter.setParallelism(4);
+        parallelSorter.sort(inputFile, parallelFile);
+
+        assertArrayEquals(Files.readAllBytes(sequentialFile), Files.readAllBytes(parallelFile));
+        try (Stream<Path> files = Files.list(testDataTempDir.toPath())) {
+            assertEquals(3, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("merging in several passes gives a stable sort")
+    void multiPassMergeTest() throws IOException, IllegalAccessException, InstantiationException {
+        final Path inputFile = testDataTempDir.toPath().resolve("sorter_input.cereal");
+        final Path outputFile = testDataTempDir.toPath().resolve("sorter_output.cereal");
+
+        final List<Forecast> inputList = new ArrayList<>();
+        try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(inputFile.toFile()))) {
+            for (int t = 0; t < iterations; t++) {
+                final Forecast randomForecast = converterTest.getRandomForecast(true);
+                inputList.add(randomForecast);
+                cos.write(randomForecast);
+            }
+        }
+
+        // hundreds of runs, merged 3 by 3 in several passes.
+        final Comparator<Forecast> comparator = Comparator.comparingInt(Forecast::getDataSource);
+        final CerealFileSorter<Forecast> sorter =
+                new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), comparator);
+        sorter.setMaxFanIn(3);
+        sorter.sort(inputFile, outputFile);
+
+        inputList.sort(comparator);
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (CerealOutputStream cos = new CerealOutputStream(expected)) {
+            for (Forecast forecast : inputList) {
+                cos.write(forecast);
+            }
+        }
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(outputFile));
+        try (Stream<Path> files = Files.list(testDataTempDir.toPath())) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("sorting by a key read from the cerealized bytes gives the same output as sorting with a comparator")
+    void keySortTest() throws IOException, IllegalAccessException, InstantiationException {
+        final Path inputFile = testDataTempDir.toPath().resolve("sorter_input.cereal");
+        final Path comparatorFile = testDataTempDir.toPath().resolve("sorter_comparator.cereal");
+        final Path keyFile = testDataTempDir.toPath().resolve("sorter_key.cereal");
+
+        try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(inputFile.toFile()))) {
+            for (int t = 0; t < iterations; t++) {
+                cos.write(converterTest.getRandomForecast(true));
+            }
+        }
+
+        // a Forecast starts with a 14 bytes BitMap, then lat, lng, timestamp and dataSource.
+        new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), new ForecastComparator())
+                .sort(inputFile, comparatorFile);
+        new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), CerealKey.longAt(22))
+                .sort(inputFile, keyFile);
+        assertArrayEquals(Files.readAllBytes(comparatorFile), Files.readAllBytes(keyFile));
+
+        // lots of ties, a filter, in parallel and in several passes.
+        final Predicate<Forecast> filter = f -> f.getDomainConfiguration() != 2;
+        new CerealFileSorter<>(new CerealizableCerealizer<>(Forecast.class), 2048, testDataTempDir.toPath(),
+                               Comparator.comparingInt(Forecast::getDataSource), filter)
+                .sort(inputFile, comparatorFile);
+        final CerealFileSorter<Forecast> keySorter =
+                new CerealFileSorter<>(new CerealizableCerealizer<>(Forecast.class), 2048, testDataTempDir.toPath(),
+                                       CerealKey.intAt(30), filter);
+        keySorter.setParallelism(3);
+        keySorter.setMaxFanIn(4);
+        keySorter.setCompressRuns(true);
+        keySorter.sort(inputFile, keyFile);
+        assertArrayEquals(Files.readAllBytes(comparatorFile), Files.readAllBytes(keyFile));
+    }
+
+    @Test
+    @DisplayName("chunks are sized by the heap budget, and reported to the run stats listener")
+    void heapBudgetSortTest() throws IOException, IllegalAccessException, InstantiationException {
+        final Path inputFile = testDataTempDir.toPath().resolve("sorter_input.cereal");
+        final Path outputFile = testDataTempDir.toPath().resolve("sorter_output.cereal");
+        final Path expectedFile = testDataTempDir.toPath().resolve("sorter_expected.cereal");
+
+        try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(inputFile.toFile()))) {
+            for (int t = 0; t < iterations; t++) {
+                cos.write(converterTest.getRandomForecast(true));
+            }
+        }
+
+        final long heapBudget = 256 * 1024;
+        final CerealFileSorter<Forecast> sorter =
+                new CerealFileSorter<>(Forecast.class, heapBudget, null, testDataTempDir.toPath(), new ForecastComparator());
+        final List<CerealFileSorter.RunStats> stats = Collections.synchronizedList(new ArrayList<>());
+        sorter.setRunStatsListener(stats::add);
+        sorter.setParallelism(2);
+        sorter.sort(inputFile, outputFile);
+
+        new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), new ForecastComparator())
+                .sort(inputFile, expectedFile);
+        assertArrayEquals(Files.readAllBytes(expectedFile), Files.readAllBytes(outputFile));
+
+        stats.sort(Comparator.comparingInt(CerealFileSorter.RunStats::run));
+        assertTrue(stats.size() > 1);
+        long records = 0;
+        long cerealizedBytes = 0;
+        for (int t = 0; t < stats.size(); t++) {
+            final CerealFileSorter.RunStats run = stats.get(t);
+            assertEquals(t, run.run());
+            // a third of the budget each, for 2 chunks being sorted and one being read, give or take one object.
+            assertTrue(run.estimatedHeapBytes() < heapBudget / 3 + 4096, run.toString());
+            assertTrue(run.estimatedHeapBytes() > run.cerealizedBytes(), run.toString());
+            records += run.records();
+            cerealizedBytes += run.cerealizedBytes();
+        }
+        assertEquals(iterations, records);
+        assertEquals(Files.size(inputFile), cerealizedBytes);
+    }
+
+    @Test
+    @DisplayName("compressed temporary files give the same output")
+    void compressedRunsSortTest() throws IOException, IllegalAccessException, InstantiationException {
+        final Path inputFile = testDataTempDir.toPath().resolve("sorter_input.cereal");
+        final Path outputFile = testDataTempDir.toPath().resolve("sorter_output.cereal");
+        final Path expectedFile = testDataTempDir.toPath().resolve("sorter_expected.cereal");
+
+        try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(inputFile.toFile()))) {
+            for (int t = 0; t < iterations; t++) {
+                cos.write(converterTest.getRandomForecast(true));
+            }
+        }
+
+        new CerealFileSorter<>(Forecast.class, 100_000, testDataTempDir.toPath(), new ForecastComparator())
+                .sort(inputFile, expectedFile);
+
+        final CerealFileSorter<Forecast> sorter =
+                new CerealFileSorter<>(Forecast.class, 100_000, testDataTempDir.toPath(), new ForecastComparator());
+        sorter.setCompressRuns(true);
+        sorter.setMaxFanIn(2);
+        sorter.sort(inputFile, outputFile);
+
+        assertArrayEquals(Files.readAllBytes(expectedFile), Files.readAllBytes(outputFile));
+        try (Stream<Path> files = Files.list(testDataTempDir.toPath())) {
+            assertEquals(3, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("a reducer collapses the objects that compare equal, in chunks and during the merge")
+    void reduceSortTest() throws IOException, IllegalAccessException, InstantiationException {
+        final Path inputFile = testDataTempDir.toPath().resolve("sorter_input.cereal");
+        final Path outputFile = testDataTempDir.toPath().resolve("sorter_output.cereal");
+
+        final List<Forecast> inputList = new ArrayList<>();
+        try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(inputFile.toFile()))) {
+            for (int t = 0; t < iterations; t++) {
+                final Forecast randomForecast = converterTest.getRandomForecast(true);
+                inputList.add(randomForecast);
+                cos.write(randomForecast);
+            }
+        }
+
+        // keep the last forecast of each of the 9 (dataSource, domainConfiguration).
+        final Comparator<Forecast> comparator = Comparator.comparingInt(Forecast::getDataSource)
+                .thenComparingInt(Forecast::getDomainConfiguration);
+        final Map<Integer, Forecast> lastForecasts = new TreeMap<>();
+        for (Forecast forecast : inputList) {
+            lastForecasts.put(forecast.getDataSource() * 10 + forecast.getDomainConfiguration(), forecast);
+        }
+        final CerealFileSorter<Forecast> sorter =
+                new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), comparator);
+        sorter.setReducer((f1, f2) -> f2);
+        sorter.setMaxFanIn(5);
+        sorter.setParallelism(2);
+        sorter.sort(inputFile, outputFile);
+        assertEquals(new ArrayList<>(lastForecasts.values()), readForecasts(outputFile));
+
+        // keep the forecast with the latest timestamp of each dataSource, sorting by key.
+        final Map<Integer, Forecast> latestForecasts = new TreeMap<>();
+        for (Forecast forecast : inputList) {
+            latestForecasts.merge(forecast.getDataSource(), forecast, SorterTest::latest);
+        }
+        final CerealFileSorter<Forecast> keySorter =
+                new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), CerealKey.intAt(30));
+        keySorter.setReducer(SorterTest::latest);
+        keySorter.setMaxFanIn(5);
+        keySorter.sort(inputFile, outputFile);
+        assertEquals(new ArrayList<>(latestForecasts.values()), readForecasts(outputFile));
+    }
+
+    @Test
+    @DisplayName("sorting into shards gives ordered ranges, which concatenate to the single file output")
+    void shardedSortTest() throws IOException, IllegalAccessException, InstantiationException {
+        final Path inputFile = testDataTempDir.toPath().resolve("sorter_input.cereal");
+        final Path outputFile = testDataTempDir.toPath().resolve("sorter_output.cereal");
+        final List<Path> shardFiles = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            shardFiles.add(testDataTempDir.toPath().resolve("sorter_shard_" + t + ".cereal"));
+        }
+
+        try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(inputFile.toFile()))) {
+            for (int t = 0; t < iterations; t++) {
+                cos.write(converterTest.getRandomForecast(true));
+            }
+        }
+
+        new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), new ForecastComparator())
+                .sort(inputFile, outputFile);
+        final CerealFileSorter<Forecast> sorter =
+                new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), new ForecastComparator());
+        sorter.setParallelism(3);
+        sorter.setMaxFanIn(4);
+        sorter.sort(inputFile, shardFiles);
+        assertArrayEquals(Files.readAllBytes(outputFile), concatenate(shardFiles));
+        for (Path shardFile : shardFiles) {
+            assertTrue(Files.size(shardFile) < Files.size(outputFile));
+        }
+
+        // only 3 distinct keys for 4 shards: equal objects always end up in the same shard.
+        new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), Comparator.comparingInt(Forecast::getDataSource))
+                .sort(inputFile, outputFile);
+        final CerealFileSorter<Forecast> keySorter =
+                new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), CerealKey.intAt(30));
+        keySorter.setParallelism(2);
+        keySorter.sort(inputFile, shardFiles);
+        assertArrayEquals(Files.readAllBytes(outputFile), concatenate(shardFiles));
+        for (Path shardFile : shardFiles) {
+            final List<Forecast> shard = readForecasts(shardFile);
+            if (!shard.isEmpty()) {
+                final int dataSource = shard.get(0).getDataSource();
+                assertTrue(shard.stream().allMatch(f -> f.getDataSource() == dataSource));
+            }
+        }
+        try (Stream<Path> files = Files.list(testDataTempDir.toPath())) {
+            assertEquals(6, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("top K gives the first K objects of a full sort, in memory when they fit and with temp files otherwise")
+    void topKTest() throws IOException, IllegalAccessException, InstantiationException {
+        final Path inputFile = testDataTempDir.toPath().resolve("sorter_input.cereal");
+        final Path sortedFile = testDataTempDir.toPath().resolve("sorter_sorted.cereal");
+        final Path topFile = testDataTempDir.toPath().resolve("sorter_top.cereal");
+
+        try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(inputFile.toFile()))) {
+            for (int t = 0; t < iterations; t++) {
+                cos.write(converterTest.getRandomForecast(true));
+            }
+        }
+        final Predicate<Forecast> filter = f -> f.getDomainConfiguration() != 2;
+        new CerealFileSorter<>(new CerealizableCerealizer<>(Forecast.class), 2048, testDataTempDir.toPath(), new ForecastComparator(), filter)
+                .sort(inputFile, sortedFile);
+        final List<Forecast> sorted = readForecasts(sortedFile);
+
+        // 100 forecasts fit in half a chunk: no temp file.
+        final List<CerealFileSorter.RunStats> runs = new ArrayList<>();
+        final CerealFileSorter<Forecast> inMemorySorter =
+                new CerealFileSorter<>(new CerealizableCerealizer<>(Forecast.class), 64 * 1024, testDataTempDir.toPath(), new ForecastComparator(), filter);
+        inMemorySorter.setRunStatsListener(runs::add);
+        inMemorySorter.topK(inputFile, topFile, 100);
+        assertEquals(sorted.subList(0, 100), readForecasts(topFile));
+        assertEquals(0, runs.size());
+
+        // 1000 forecasts don't fit in half of a 2KB chunk.
+        final CerealFileSorter<Forecast> spillingSorter =
+                new CerealFileSorter<>(new CerealizableCerealizer<>(Forecast.class), 2048, testDataTempDir.toPath(), new ForecastComparator(), filter);
+        spillingSorter.setRunStatsListener(runs::add);
+        spillingSorter.setParallelism(2);
+        spillingSorter.setMaxFanIn(3);
+        spillingSorter.topK(inputFile, topFile, 1000);
+        assertEquals(sorted.subList(0, 1000), readForecasts(topFile));
+        assertTrue(runs.size() > 0);
+
+        // more than the input holds.
+        spillingSorter.topK(inputFile, topFile, iterations);
+        assertEquals(sorted, readForecasts(topFile));
+
+        // by key, with a reducer: the latest forecast of the first 2 data sources.
+        final CerealFileSorter<Forecast> keySorter =
+                new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), CerealKey.intAt(30));
+        keySorter.setReducer(SorterTest::latest);
+        keySorter.sort(inputFile, sortedFile);
+        keySorter.topK(inputFile, topFile, 2);
+        assertEquals(readForecasts(sortedFile).subList(0, 2), readForecasts(topFile));
+        try (Stream<Path> files = Files.list(testDataTempDir.toPath())) {
+            assertEquals(3, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("a checkpointed sort that fails resumes from its sorted chunks, then from its merged runs")
+    void resumeSortTest() throws IOException, IllegalAccessException, InstantiationException {
+        final Path inputFile = testDataTempDir.toPath().resolve("sorter_input.cereal");
+        final Path expectedFile = testDataTempDir.toPath().resolve("sorter_expected.cereal");
+        final Path outputFile = testDataTempDir.toPath().resolve("sorter_output.cereal");
+
+        try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(inputFile.toFile()))) {
+            for (int t = 0; t < iterations; t++) {
+                cos.write(converterTest.getRandomForecast(true));
+            }
+        }
+        final Comparator<Forecast> comparator = Comparator.comparingInt(Forecast::getDataSource);
+        final List<CerealFileSorter.RunStats> runs = new ArrayList<>();
+        final CerealFileSorter<Forecast> sorter = new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), comparator);
+        sorter.setRunStatsListener(runs::add);
+        sorter.sort(inputFile, expectedFile);
+        final int runCount = runs.size();
+
+        // fails after the 6th chunk is sorted.
+        final CerealFileSorter<Forecast> failingSorter = new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), comparator);
+        failingSorter.setCheckpoint("resumed");
+        failingSorter.setMaxFanIn(3);
+        failingSorter.setRunStatsListener(stats -> {
+            if (stats.run() == 5) {
+                throw new IllegalStateException("chunk 5");
+            }
+        });
+        assertThrows(IllegalStateException.class, () -> failingSorter.sort(inputFile, outputFile));
+        assertTrue(Files.exists(testDataTempDir.toPath().resolve("resumed.manifest")));
+
+        // resumes from the 7th chunk, and fails during the merge passes.
+        final List<Integer> resumedRuns = new ArrayList<>();
+        final AtomicInteger comparisons = new AtomicInteger(-1);
+        final CerealFileSorter<Forecast> failingMergeSorter = new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), (f1, f2) -> {
+            if (comparisons.get() >= 0 && comparisons.incrementAndGet() > 3000) {
+                throw new IllegalStateException("merge");
+            }
+            return comparator.compare(f1, f2);
+        });
+        failingMergeSorter.setCheckpoint("resumed");
+        failingMergeSorter.setMaxFanIn(3);
+        failingMergeSorter.setRunStatsListener(stats -> {
+            resumedRuns.add(stats.run());
+            if (stats.run() == runCount - 1) {
+                comparisons.set(0);
+            }
+        });
+        assertThrows(IllegalStateException.class, () -> failingMergeSorter.sort(inputFile, outputFile));
+        assertEquals(6, resumedRuns.get(0));
+        assertEquals(runCount - 6, resumedRuns.size());
+
+        // only the merge is left.
+        final List<CerealFileSorter.RunStats> lastRuns = new ArrayList<>();
+        final CerealFileSorter<Forecast> resumedSorter = new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), comparator);
+        resumedSorter.setCheckpoint("resumed");
+        resumedSorter.setMaxFanIn(3);
+        resumedSorter.setRunStatsListener(lastRuns::add);
+        resumedSorter.sort(inputFile, outputFile);
+        assertEquals(0, lastRuns.size());
+        assertArrayEquals(Files.readAllBytes(expectedFile), Files.readAllBytes(outputFile));
+        try (Stream<Path> files = Files.list(testDataTempDir.toPath())) {
+            assertEquals(3, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("a checkpointed sort in place keeps its input until the merge is done")
+    void resumeSortInPlaceTest() throws IOException, IllegalAccessException, InstantiationException {
+        final Path inputFile = testDataTempDir.toPath().resolve("sorter_input.cereal");
+        final Path expectedFile = testDataTempDir.toPath().resolve("sorter_expected.cereal");
+        try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(inputFile.toFile()))) {
+            for (int t = 0; t < iterations; t++) {
+                cos.write(converterTest.getRandomForecast(true));
+            }
+        }
+        final Comparator<Forecast> comparator = Comparator.comparingInt(Forecast::getDataSource);
+        new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), comparator).sort(inputFile, expectedFile);
+        final byte[] input = Files.readAllBytes(inputFile);
+
+        // fails during the merge.
+        final AtomicInteger comparisons = new AtomicInteger(-1);
+        final CerealFileSorter<Forecast> failingSorter = new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), (f1, f2) -> {
+            if (comparisons.get() >= 0 && comparisons.incrementAndGet() > 3000) {
+                throw new IllegalStateException("merge");
+            }
+            return comparator.compare(f1, f2);
+        });
+        failingSorter.setCheckpoint("in_place");
+        failingSorter.setRunStatsListener(stats -> comparisons.compareAndSet(-1, 0));
+        assertThrows(IllegalStateException.class, () -> failingSorter.sort(inputFile, inputFile));
+        assertArrayEquals(input, Files.readAllBytes(inputFile));
+
+        final CerealFileSorter<Forecast> resumedSorter = new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), comparator);
+        resumedSorter.setCheckpoint("in_place");
+        resumedSorter.sort(inputFile, inputFile);
+        assertArrayEquals(Files.readAllBytes(expectedFile), Files.readAllBytes(inputFile));
+        try (Stream<Path> files = Files.list(testDataTempDir.toPath())) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("an in-place sort without a checkpoint that fails during the merge leaves its input untouched")
+    void failedSortInPlaceTest() throws IOException, IllegalAccessException, InstantiationException {
+        final Path inputFile = testDataTempDir.toPath().resolve("sorter_input.cereal");
+        try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(inputFile.toFile()))) {
+            for (int t = 0; t < iterations; t++) {
+                cos.write(converterTest.getRandomForecast(true));
+            }
+        }
+        final byte[] input = Files.readAllBytes(inputFile);
+
+        // the runs hold every object once the run stats add up to the input, so the reducer fails during the merge.
+        final AtomicInteger records = new AtomicInteger();
+        final CerealFileSorter<Forecast> failingSorter = new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), Comparator.comparingInt(Forecast::getDataSource));
+        failingSorter.setRunStatsListener(stats -> records.addAndGet((int) stats.records()));
+        failingSorter.setReducer((f1, f2) -> {
+            if (records.get() >= iterations) {
+                throw new IllegalStateException("merge");
+            }
+            return f2;
+        });
+        assertThrows(IllegalStateException.class, () -> failingSorter.sort(inputFile, inputFile));
+        assertEquals(iterations, records.get());
+        assertArrayEquals(input, Files.readAllBytes(inputFile));
+        try (Stream<Path> files = Files.list(testDataTempDir.toPath())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("a manifest that names other files than the temp files of the sort doesn't delete them")
+    void foreignManifestTest() throws IOException, IllegalAccessException, InstantiationException {
+        final Path workspace = Files.createDirectory(testDataTempDir.toPath().resolve("workspace"));
+        final Path inputFile = testDataTempDir.toPath().resolve("sorter_input.cereal");
+        final Path outputFile = testDataTempDir.toPath().resolve("sorter_output.cereal");
+        final Path outside = Files.writeString(testDataTempDir.toPath().resolve("outside.txt"), "keep");
+        final Path inside = Files.writeString(workspace.resolve("inside.txt"), "keep");
+        try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(inputFile.toFile()))) {
+            for (int t = 0; t < iterations; t++) {
+                cos.write(converterTest.getRandomForecast(true));
+            }
+        }
+        Files.write(workspace.resolve("damaged.manifest"), List.of("CerealFileSorter 1 1 0 0 " + inputFile.toAbsolutePath(),
+                "run 0 100 10 ../outside.txt 4 0", "run 1 200 10 inside.txt 4 0", "merge 0 0 2 damaged_tmp_../../outside.txt 4 0"));
+
+        final CerealFileSorter<Forecast> sorter = new CerealFileSorter<>(Forecast.class, 2048, workspace, new ForecastComparator());
+        sorter.setCheckpoint("damaged");
+        sorter.sort(inputFile, outputFile);
+        assertEquals(iterations, readForecasts(outputFile).size());
+        assertEquals("keep", Files.readString(outside));
+        assertEquals("keep", Files.readString(inside));
+    }
+
+    @Test
+    @DisplayName("merging sorted files gives the same output as sorting them all together")
+    void mergeTest() throws IOException, IllegalAccessException, InstantiationException {
+        final Path allFile = testDataTempDir.toPath().resolve("sorter_all.cereal");
+        final Path expectedFile = testDataTempDir.toPath().resolve("sorter_expected.cereal");
+        final Path outputFile = testDataTempDir.toPath().resolve("sorter_output.cereal");
+        final Comparator<Forecast> comparator = Comparator.comparingInt(Forecast::getDataSource);
+
+        // 7 sorted files, which all hold ties.
+        final List<Path> inputFiles = new ArrayList<>();
+        try (CerealOutputStream all = new CerealOutputStream(new FileOutputStream(allFile.toFile()))) {
+            for (int file = 0; file < 7; file++) {
+                final List<Forecast> forecasts = new ArrayList<>();
+                for (int t = 0; t < iterations / 10; t++) {
+                    final Forecast randomForecast = converterTest.getRandomForecast(true);
+                    forecasts.add(randomForecast);
+                    all.write(randomForecast);
+                }
+                forecasts.sort(comparator);
+                final Path inputFile = testDataTempDir.toPath().resolve("sorter_input_" + file + ".cereal");
+                try (CerealOutputStream cos = new CerealOutputStream(new FileOutputStream(inputFile.toFile()))) {
+                    for (Forecast forecast : forecasts) {
+                        cos.write(forecast);
+                    }
+                }
+                inputFiles.add(inputFile);
+            }
+        }
+        final byte[] input0 = Files.readAllBytes(inputFiles.get(0));
+
+        new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), comparator).sort(allFile, expectedFile);
+        final CerealFileSorter<Forecast> merger = new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), comparator);
+        merger.merge(inputFiles, outputFile);
+        assertArrayEquals(Files.readAllBytes(expectedFile), Files.readAllBytes(outputFile));
+
+        // in several passes through compressed temp files, by key, with a reducer.
+        final CerealFileSorter<Forecast> keySorter = new CerealFileSorter<>(Forecast.class, 2048, testDataTempDir.toPath(), CerealKey.intAt(30));
+        keySorter.setReducer(SorterTest::latest);
+        keySorter.sort(allFile, expectedFile);
+        keySorter.setMaxFanIn(3);
+        keySorter.setCompressRuns(true);
+        keySorter.merge(inputFiles, outputFile);
+        assertArrayEquals(Files.readAllBytes(expectedFile), Files.readAllBytes(outputFile));
+
+        assertArrayEquals(input0, Files.readAllBytes(inputFiles.get(0)));
+        try (Stream<Path> files = Files.list(testDataTempDir.toPath())) {
+            assertEquals(10, files.count());
+        }
+    }
+
+    private static byte[] concatenate(final List<Path> files) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Path file : files) {
+            bytes.write(Files.readAllBytes(file));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Forecast latest(final Forecast f1, final Forecast f2) {
+        return f2.getTimestamp() > f1.getTimestamp() ? f2 : f1;
+    }
+
+    private static List<Forecast> readForecasts(final Path file) throws IOException, IllegalAccessException, InstantiationException {
+        final List<Forecast> forecasts = new ArrayList<>();
+        try (CerealInputStream cis = new CerealInputStream(new FileInputStream(file.toFile()))) {
+            Optional<Forecast> readOpt;
+            while ((readOpt = cis.read(Forecast.class)).isPresent()) {
+                forecasts.add(readOpt.get());
+            }
+        }
+        return forecasts;
+    }
+
     @Test
     void largeFileSortTest() throws IOException, IllegalAccessException, InstantiationException {
         int entries = 15 * 15 * 15;
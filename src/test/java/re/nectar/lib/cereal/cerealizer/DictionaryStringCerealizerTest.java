@@ -0,0 +1,102 @@
+package re.nectar.lib.cereal.cerealizer;
+
+import re.nectar.lib.cereal.ByteArray;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DictionaryStringCerealizerTest {
+
+    @Test
+    @DisplayName("repeated Strings are written once, and read back as the same instance")
+    void object_cerealization() {
+        final DictionaryStringCerealizer writer = new DictionaryStringCerealizer();
+        final List<String> strings = new ArrayList<>();
+        for (int t = 0; t < 1000; t++) {
+            strings.add(t % 7 == 0 ? null : "station-" + (t % 100) + "-été");
+        }
+        final ByteArray ba = new ByteArray();
+        for (final String s : strings) {
+            writer.cerealizeTo(ba, s);
+        }
+        assertEquals(100, writer.size());
+        final ByteArray full = new ByteArray();
+        strings.forEach(full::addVarString);
+        assertTrue(ba.length() < full.length() / 5);
+
+        final DictionaryStringCerealizer reader = new DictionaryStringCerealizer();
+        final String[] read = new String[strings.size()];
+        for (int t = 0; t < read.length; t++) {
+            read[t] = reader.uncerealizeFrom(ba);
+            assertEquals(strings.get(t), read[t]);
+        }
+        assertSame(read[1], read[101]);
+        assertNull(read[7]);
+        assertEquals(writer.size(), reader.size());
+        assertEquals(0, ba.length());
+    }
+
+    @Test
+    @DisplayName("Strings are written in full once the dictionary is full")
+    void max_size() {
+        final DictionaryStringCerealizer writer = new DictionaryStringCerealizer(2);
+        final ByteArray ba = new ByteArray();
+        for (final String s : List.of("a", "b", "c", "a", "c", "b")) {
+            writer.cerealizeTo(ba, s);
+        }
+        assertEquals(2, writer.size());
+        final DictionaryStringCerealizer reader = new DictionaryStringCerealizer(2);
+        for (final String s : List.of("a", "b", "c", "a", "c", "b")) {
+            assertEquals(s, reader.uncerealizeFrom(ba));
+        }
+        assertEquals(0, ba.length());
+
+        // an id that was never read can only come from a different sequence of objects.
+        ba.addVarLong(5 << 1);
+        assertThrows(IllegalStateException.class, () -> new DictionaryStringCerealizer().uncerealizeFrom(ba));
+    }
+
+    @Test
+    @DisplayName("new Strings take a single length prefix, and can be rolled back")
+    void layout_and_rollback() {
+        final DictionaryStringCerealizer writer = new DictionaryStringCerealizer();
+        final ByteArray ba = new ByteArray();
+        writer.cerealizeTo(ba, "fr-FR");
+        writer.commit();
+        writer.cerealizeTo(ba, "fr-FR");
+        writer.cerealizeTo(ba, null);
+        // (5 << 1) | 1 and "fr-FR", then (0 + 1) << 1, then null.
+        final ByteArray expected = new ByteArray();
+        expected.addVarLong(11);
+        expected.addRawBytes("fr-FR".getBytes(StandardCharsets.UTF_8));
+        expected.addVarLong(2);
+        expected.addVarLong(0);
+        assertArrayEquals(expected.copyAllBytes(), ba.copyAllBytes());
+
+        // the bytes of an object that failed are dropped, and its new Strings with them.
+        writer.cerealizeTo(new ByteArray(), "en-GB");
+        writer.rollback();
+        writer.cerealizeTo(ba, "en-GB");
+        writer.cerealizeTo(ba, "fr-FR");
+        writer.commit();
+        assertEquals(2, writer.size());
+
+        final DictionaryStringCerealizer reader = new DictionaryStringCerealizer();
+        final String tag = reader.uncerealizeFrom(ba);
+        assertSame(tag, reader.uncerealizeFrom(ba));
+        assertNull(reader.uncerealizeFrom(ba));
+        assertEquals("en-GB", reader.uncerealizeFrom(ba));
+        assertSame(tag, reader.uncerealizeFrom(ba));
+        assertEquals(0, ba.length());
+    }
+}
@@ -0,0 +1,81 @@
+package re.nectar.lib.cereal.cerealizer;
+
+import re.nectar.lib.cereal.ByteArray;
+import re.nectar.lib.cereal.CerealUUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RecordCerealizerTest {
+
+    enum Unit {
+        METER, FOOT
+    }
+
+    record Measure(String name, double value, Unit unit, Integer count, long[] history, boolean valid, UUID id,
+                   CerealUUID cerealUUID, byte[] raw, short s) {
+    }
+
+    record Point(float x, float y) {
+    }
+
+    record Names(List<String> names) {
+    }
+
+    @Test
+    @DisplayName("Records are correctly cerealized/uncerealized")
+    void object_cerealization() {
+        // Setup
+        final RecordCerealizer<Measure> cerealizer = RecordCerealizer.of(Measure.class);
+        final Measure obj = new Measure("altitude", 1.5, Unit.FOOT, 12, new long[]{1, 2, 3}, true, UUID.randomUUID(),
+                new CerealUUID(UUID.randomUUID()), new byte[]{4, 5}, (short) 7);
+        final Measure nulls = new Measure(null, 0, null, null, null, false, null, null, null, (short) 0);
+        // Exercise
+        final ByteArray ba = new ByteArray();
+        cerealizer.cerealizeTo(ba, obj);
+        cerealizer.cerealizeTo(ba, nulls);
+
+        final Measure obj2 = cerealizer.uncerealizeFrom(ba);
+        final Measure nulls2 = cerealizer.uncerealizeFrom(ba);
+        // Verify
+        assertEquals(obj.name(), obj2.name());
+        assertEquals(obj.value(), obj2.value());
+        assertEquals(obj.unit(), obj2.unit());
+        assertEquals(obj.count(), obj2.count());
+        assertArrayEquals(obj.history(), obj2.history());
+        assertEquals(obj.valid(), obj2.valid());
+        assertEquals(obj.id(), obj2.id());
+        assertEquals(obj.cerealUUID(), obj2.cerealUUID());
+        assertArrayEquals(obj.raw(), obj2.raw());
+        assertEquals(obj.s(), obj2.s());
+        assertNull(nulls2.name());
+        assertNull(nulls2.unit());
+        assertNull(nulls2.count());
+        assertNull(nulls2.history());
+        assertNull(nulls2.cerealUUID());
+        assertEquals(0, ba.length());
+    }
+
+    @Test
+    @DisplayName("Records without nullable components have no null bitmap")
+    void layout() {
+        final ByteArray ba = new ByteArray();
+        RecordCerealizer.of(Point.class).cerealizeTo(ba, new Point(1f, 2f));
+        final ByteArray expected = new ByteArray();
+        expected.add(1f);
+        expected.add(2f);
+        assertArrayEquals(expected.copyAllBytes(), ba.copyAllBytes());
+        assertEquals(new Point(1f, 2f), RecordCerealizer.of(Point.class).uncerealizeFrom(ba));
+
+        assertSame(RecordCerealizer.of(Point.class), RecordCerealizer.of(Point.class));
+        assertThrows(IllegalArgumentException.class, () -> RecordCerealizer.of(Names.class));
+    }
+}